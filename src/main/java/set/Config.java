@@ -47,7 +47,12 @@ public class Config {
     public final int computerPlayers;
 
     /**
-     * The total number of players (human + computer) in the game
+     * The number of remote players (i.e. input is received from a network client of the game server)
+     */
+    public final int remotePlayers;
+
+    /**
+     * The total number of players (human + remote + computer) in the game
      */
     public final int players;
 
@@ -56,6 +61,17 @@ public class Config {
      */
     public final boolean hints;
 
+    /**
+     * The seed of the dealer's shuffles and of the computer players' choices, to replay the same games (0 to seed
+     * every game differently)
+     */
+    public final long randomSeed;
+
+    /**
+     * How computer players choose slots: look for a set on the table and take it, or press random slots
+     */
+    public final boolean botFindsSets;
+
     /**
      * The number of milliseconds until the dealer reshuffles the deck (0 show timer since last action, -1 show nothing)
      */
@@ -76,6 +92,17 @@ public class Config {
      */
     public final long pointFreezeMillis;
 
+    /**
+     * What the dealer does when the cards on the table hold no set: deal extra cards into the spare slots (and
+     * reshuffle if that does not help), or reshuffle right away
+     */
+    public final boolean deadTableExtraCards;
+
+    /**
+     * The number of table slots left empty for extra cards (used only when dealing extra cards on a dead table)
+     */
+    public final int spareSlots;
+
     /**
      * The number of milliseconds to delay before removing/placing a card on the table
      */
@@ -86,6 +113,67 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The number of milliseconds the game's threads have to end once the game is stopped (e.g. the window is closed)
+     */
+    public final long shutdownDeadlineMillis;
+
+    /**
+     * The local TCP port of the game server (0 to run without a server)
+     */
+    public final int serverPort;
+
+    /**
+     * The size (in bytes) of each connection's input and output buffers on the game server (an output buffer grows for
+     * a larger frame, e.g. the keyframe of a large table)
+     */
+    public final int serverBufferBytes;
+
+    /**
+     * The local TCP port of the admin and diagnostics HTTP server, bound to localhost (0 to run without it)
+     */
+    public final int adminPort;
+
+    /**
+     * The number of frames kept for spectators, and the number of frames between full state keyframes
+     */
+    public final int spectatorRingSize;
+    public final int spectatorKeyframeInterval;
+
+    /**
+     * The number of user interface events the game may publish ahead of the slowest event subscriber
+     */
+    public final int eventRingSize;
+
+    /**
+     * The path of the file the game is checkpointed to (empty to run without checkpoints)
+     */
+    public final String checkpointFile;
+
+    /**
+     * Whether to flush every checkpoint to disk (otherwise checkpoints survive the JVM dying, but not the OS)
+     */
+    public final boolean checkpointSync;
+
+    /**
+     * The path of a file of table layouts the dealer deals at the start of each round, in turn (empty to deal at random)
+     */
+    public final String tableLayoutFile;
+
+    /**
+     * The budgets of a game host running many games in one process: the threads of its shared scheduler, the number of
+     * games, the number of threads of live games, and the process CPU load (0 to 1) above which new games are rejected
+     */
+    public final int hostThreads;
+    public final int hostMaxGames;
+    public final int hostMaxThreads;
+    public final double hostMaxCpuLoad;
+
+    /**
+     * The maximal number of key presses waiting to be played by each player (later presses are dropped)
+     */
+    public final int keyQueueDepth;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
@@ -107,6 +195,11 @@ public class Config {
      */
     public final int tableSize;
 
+    /**
+     * The number of slots in each locking region of the table (players and the dealer only contend inside a region)
+     */
+    public final int tableRegionSlots;
+
     /**
      * The width (in pixels) of each cell
      */
@@ -132,6 +225,22 @@ public class Config {
      */
     public final int fontSize;
 
+    /**
+     * The number of rows of the ranked scoreboard, shown a page at a time instead of a column per player when there
+     * are more players than rows (also the number of players the dealer keeps ranked).
+     */
+    public final int scoreboardRows;
+
+    /**
+     * Whether the render performance overlay (toggled with F3) is shown when the game starts
+     */
+    public final boolean perfOverlay;
+
+    /**
+     * The event dispatch thread stalls longer than this are logged with its stack trace (0 to not log stalls)
+     */
+    public final long edtStallMillis;
+
     /**
      * The scancodes of the keyboard input data for each player
      * Notes:
@@ -155,7 +264,7 @@ public class Config {
      * @param filename - the name of the configuration file.
      * @return - a properties object with the configuration file contents.
      */
-    private static Properties loadProperties(String filename, Logger logger) {
+    public static Properties loadProperties(String filename, Logger logger) {
 
         Properties properties = new Properties();
 
@@ -196,20 +305,59 @@ public class Config {
         // cards settings
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
-        deckSize = (int) Math.pow(featureSize, featureCount);
+        deckSize = deckSize(featureSize, featureCount);
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
-        players = humanPlayers + computerPlayers;
+        remotePlayers = Integer.parseInt(properties.getProperty("RemotePlayers", "0"));
+        players = humanPlayers + remotePlayers + computerPlayers;
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
+        randomSeed = Long.parseLong(properties.getProperty("RandomSeed", "0"));
+        String botStrategy = properties.getProperty("BotStrategy", "Random").trim();
+        botFindsSets = botStrategy.equalsIgnoreCase("Sets");
+        if (!botFindsSets && !botStrategy.equalsIgnoreCase("Random"))
+            logger.severe("invalid bot strategy: " + botStrategy + " (use Sets or Random)");
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
         pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
         penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
         tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
         endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
+        shutdownDeadlineMillis = (long) (Double.parseDouble(properties.getProperty("ShutdownDeadlineSeconds", "1")) * 1000.0);
+        String deadTablePolicy = properties.getProperty("DeadTablePolicy", "Reshuffle").trim();
+        deadTableExtraCards = deadTablePolicy.equalsIgnoreCase("ExtraCards");
+        if (!deadTableExtraCards && !deadTablePolicy.equalsIgnoreCase("Reshuffle"))
+            logger.severe("invalid dead table policy: " + deadTablePolicy + " (use ExtraCards or Reshuffle)");
+        spareSlots = Integer.parseInt(properties.getProperty("SpareSlots", "0"));
+
+        // server settings
+        serverPort = Integer.parseInt(properties.getProperty("ServerPort", "0"));
+        serverBufferBytes = Integer.parseInt(properties.getProperty("ServerBufferBytes", "65536"));
+        adminPort = Integer.parseInt(properties.getProperty("AdminPort", "0"));
+        spectatorRingSize = Integer.parseInt(properties.getProperty("SpectatorRingSize", "4096"));
+        spectatorKeyframeInterval = Integer.parseInt(properties.getProperty("SpectatorKeyframeInterval", "256"));
+        eventRingSize = Integer.parseInt(properties.getProperty("EventRingSize", "4096"));
+        if (remotePlayers > 0 && serverPort <= 0)
+            logger.severe("warning: running with remote players with no game server");
+
+        // checkpoint settings
+        checkpointFile = properties.getProperty("CheckpointFile", "").trim();
+        checkpointSync = Boolean.parseBoolean(properties.getProperty("CheckpointSync", "False"));
+
+        // table layout settings
+        tableLayoutFile = properties.getProperty("TableLayoutFile", "").trim();
+
+        // game host settings
+        hostThreads = Integer.parseInt(properties.getProperty("HostThreads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        hostMaxGames = Integer.parseInt(properties.getProperty("HostMaxGames", "10000"));
+        hostMaxThreads = Integer.parseInt(properties.getProperty("HostMaxThreads", "2048"));
+        hostMaxCpuLoad = Double.parseDouble(properties.getProperty("HostMaxCpuLoad", "0.9"));
+
+        // input settings
+        keyQueueDepth = Integer.parseInt(properties.getProperty("KeyQueueDepth", "8"));
 
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
@@ -219,11 +367,19 @@ public class Config {
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
+        tableRegionSlots = Math.max(1, Integer.parseInt(properties.getProperty("TableRegionSlots", Integer.toString(columns))));
+        if (spareSlots < 0 || spareSlots >= tableSize)
+            logger.severe("invalid spare slots: " + spareSlots + " (table size " + tableSize + ")");
+        else if (deadTableExtraCards && spareSlots == 0)
+            logger.severe("warning: dead table policy ExtraCards with no spare slots reshuffles like Reshuffle (set SpareSlots)");
         cellWidth = Integer.parseInt(properties.getProperty("CellWidth", "258"));
         cellHeight = Integer.parseInt(properties.getProperty("CellHeight", "167"));
         playerCellWidth = Integer.parseInt(properties.getProperty("PlayerCellWidth", "300"));
         playerCellHeight = Integer.parseInt(properties.getProperty("PlayerCellHeight", "40"));
         fontSize = Integer.parseInt(properties.getProperty("FontSize", "40"));
+        scoreboardRows = Math.max(1, Integer.parseInt(properties.getProperty("ScoreboardRows", "8")));
+        perfOverlay = Boolean.parseBoolean(properties.getProperty("PerfOverlay", "False"));
+        edtStallMillis = (long) (Double.parseDouble(properties.getProperty("EdtStallSeconds", "0.25")) * 1000.0);
 
         // keyboard input data
         playerKeys = new int[players][rows * columns];
@@ -241,6 +397,27 @@ public class Config {
         }
     }
 
+    /**
+     * Computes featureSize ^ featureCount, refusing configurations whose deck does not fit in an int.
+     *
+     * @param featureSize  - the number of choices for each feature.
+     * @param featureCount - the number of features on the cards.
+     * @return - the total number of cards in the deck.
+     * @throws IllegalArgumentException - if the features are not positive or the deck size overflows.
+     */
+    static int deckSize(int featureSize, int featureCount) {
+        if (featureSize < 1 || featureCount < 1)
+            throw new IllegalArgumentException("invalid card features: size " + featureSize + " count " + featureCount);
+        int size = 1;
+        try {
+            for (int i = 0; i < featureCount; ++i)
+                size = Math.multiplyExact(size, featureSize);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("deck size " + featureSize + "^" + featureCount + " overflows", e);
+        }
+        return size;
+    }
+
     public int[] playerKeys(int player) {
         return playerKeys[player];
     }
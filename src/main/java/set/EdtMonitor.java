@@ -0,0 +1,218 @@
+package set;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Measures the Swing side of the user interface, to tell stutter caused by Swing apart from stutter caused by the game
+ * threads: the table paints per second (frames) and the time of each paint, the lag of the event dispatch thread (the
+ * time a probe posted with EventQueue.invokeLater waits in the event queue) and the user interface updates per second
+ * by type. The numbers of the last second are shown in an overlay, toggled with TOGGLE_KEY.
+ * A watchdog thread posts the probes, and logs every stall of the event dispatch thread longer than EdtStallSeconds
+ * with the thread's stack trace, and the stall's length once it ends.
+ */
+class EdtMonitor {
+
+    /**
+     * The key that shows and hides the overlay.
+     */
+    static final int TOGGLE_KEY = KeyEvent.VK_F3;
+
+    /**
+     * The time between probes, and between overlay refreshes.
+     */
+    private static final long PROBE_MILLIS = 50;
+    private static final int REFRESH_MILLIS = 1000;
+
+    private final Logger logger;
+    private final long stallNanos;
+
+    /**
+     * The time of every table paint, and the lag of every probe (recorded and reset on the event dispatch thread).
+     */
+    private final Histogram paintNanos;
+    private final Histogram lagNanos;
+
+    /**
+     * The user interface updates of each type since the last refresh.
+     */
+    private final LongAdder[] updates;
+
+    /**
+     * The time the pending probe was posted (0 if none), and whether its stall was logged (guarded by this).
+     */
+    private long probePosted;
+    private boolean stallLogged;
+
+    /**
+     * The event dispatch thread, as seen by the last probe.
+     */
+    // Volatile - EDT and watchdog thread.
+    private volatile Thread edt;
+
+    private final Thread watchdog;
+    private volatile boolean stopped;
+
+    /**
+     * The overlay, and the time of its last refresh (event dispatch thread only).
+     */
+    private final JLabel overlay;
+    private final Timer refresher;
+    private long lastRefresh;
+
+    EdtMonitor(Logger logger, Config config) {
+        this.logger = logger;
+        stallNanos = TimeUnit.MILLISECONDS.toNanos(config.edtStallMillis);
+        paintNanos = new Histogram();
+        lagNanos = new Histogram();
+        updates = new LongAdder[GameEventBus.Type.values().length];
+        for (int i = 0; i < updates.length; i++) updates[i] = new LongAdder();
+
+        overlay = new JLabel();
+        overlay.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        overlay.setOpaque(true);
+        overlay.setBackground(new Color(255, 255, 224));
+        overlay.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        overlay.setVisible(false);
+        refresher = new Timer(REFRESH_MILLIS, e -> refresh());
+
+        watchdog = new Thread(this::watch, "edt-watchdog");
+        watchdog.setDaemon(true);
+    }
+
+    /**
+     * Shows the overlay over a layered pane (e.g. the frame's), and starts the watchdog.
+     */
+    void start(JLayeredPane pane, boolean showOverlay) {
+        pane.add(overlay, JLayeredPane.POPUP_LAYER);
+        watchdog.start();
+        if (showOverlay) EventQueue.invokeLater(this::toggle);
+    }
+
+    void stop() {
+        stopped = true;
+        watchdog.interrupt();
+        refresher.stop();
+    }
+
+    /**
+     * Records the time of a table paint (called on the event dispatch thread).
+     */
+    void paint(long nanos) {
+        paintNanos.record(nanos);
+    }
+
+    /**
+     * Counts a user interface update (called on the thread updating the user interface).
+     */
+    void update(GameEventBus.Type type) {
+        updates[type.ordinal()].increment();
+    }
+
+    /**
+     * Shows or hides the overlay (called on the event dispatch thread).
+     */
+    void toggle() {
+        if (overlay.isVisible()) {
+            refresher.stop();
+            overlay.setVisible(false);
+            return;
+        }
+        // the overlay shows the numbers since it was shown
+        paintNanos.reset();
+        lagNanos.reset();
+        for (LongAdder counter : updates) counter.reset();
+        lastRefresh = System.nanoTime();
+        overlay.setText("measuring...");
+        overlay.setBounds(new Rectangle(new Point(0, 0), overlay.getPreferredSize()));
+        overlay.setVisible(true);
+        refresher.start();
+    }
+
+    private void refresh() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastRefresh) / 1e9);
+        lastRefresh = now;
+        StringBuilder perType = new StringBuilder();
+        for (GameEventBus.Type type : GameEventBus.Type.values()) {
+            long count = updates[type.ordinal()].sumThenReset();
+            if (count > 0) perType.append(perType.length() == 0 ? "" : ", ")
+                    .append(type.name().toLowerCase(Locale.ROOT)).append(' ').append(Math.round(count / seconds));
+        }
+        overlay.setText("<html>fps " + Math.round(paintNanos.count() / seconds)
+                + "<br>paint " + millis(paintNanos)
+                + "<br>EDT lag " + millis(lagNanos)
+                + "<br>updates/s " + (perType.length() == 0 ? "none" : perType) + "</html>");
+        overlay.setBounds(new Rectangle(new Point(0, 0), overlay.getPreferredSize()));
+        paintNanos.reset();
+        lagNanos.reset();
+    }
+
+    private static String millis(Histogram histogram) {
+        return String.format(Locale.ROOT, "p50 %.2f ms, p99 %.2f ms, max %.2f ms", histogram.percentile(50) / 1e6,
+                histogram.percentile(99) / 1e6, histogram.max() / 1e6);
+    }
+
+    /**
+     * Posts a probe whenever the previous one ran, and logs a stall once the pending probe waited too long.
+     */
+    private void watch() {
+        while (!stopped) {
+            long now = System.nanoTime();
+            boolean post = false;
+            boolean stalled = false;
+            synchronized (this) {
+                if (probePosted == 0) {
+                    probePosted = now;
+                    post = true;
+                } else if (stallNanos > 0 && !stallLogged && now - probePosted > stallNanos) {
+                    stallLogged = stalled = true;
+                }
+            }
+            if (post) EventQueue.invokeLater(this::probe);
+            if (stalled) logStall();
+            try {
+                Thread.sleep(PROBE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records the lag of the pending probe. Runs on the event dispatch thread.
+     */
+    private void probe() {
+        edt = Thread.currentThread();
+        long lag;
+        boolean stalled;
+        synchronized (this) {
+            lag = System.nanoTime() - probePosted;
+            probePosted = 0;
+            stalled = stallLogged;
+            stallLogged = false;
+        }
+        lagNanos.record(lag);
+        if (stalled) logger.warning("event dispatch thread stall ended after " + TimeUnit.NANOSECONDS.toMillis(lag) + " ms");
+    }
+
+    private void logStall() {
+        Thread thread = edt;
+        if (thread == null)
+            for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet())
+                if (entry.getKey().getName().startsWith("AWT-EventQueue")) thread = entry.getKey();
+        StringBuilder trace = new StringBuilder("event dispatch thread stalled for more than "
+                + TimeUnit.NANOSECONDS.toMillis(stallNanos) + " ms");
+        if (thread != null) {
+            trace.append(" (").append(thread.getName()).append(", ").append(thread.getState()).append("):");
+            for (StackTraceElement element : thread.getStackTrace()) trace.append("\n\tat ").append(element);
+        }
+        logger.warning(trace.toString());
+    }
+}
@@ -0,0 +1,522 @@
+package set;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the game's user interface updates as events to subscribers, each running on its own thread.
+ * Game threads publish an event by claiming the next entry of a preallocated ring and writing its fields: publishing
+ * allocates nothing (except for the winners array) and never waits for a subscriber, unless a subscriber is a full
+ * ring behind. Every subscriber follows the published sequence at its own pace and handles all available events in a
+ * batch, so a slow subscriber (e.g. the swing user interface or the log) never delays the game or the other
+ * subscribers.
+ * Display updates (countdown, elapsed time and freezes) never wait, even for a full ring: they are published by the
+ * shared timing wheel thread, whose tasks must not block. When the ring is full, only the latest value of each display
+ * (per player for freezes) is kept, and it is published as soon as a subscriber makes room.
+ *
+ * An entry n of the ring is available once published[n & mask] == n, and may be overwritten once every subscriber
+ * passed it (the subscriber sequences are the barrier of the producers).
+ */
+public class GameEventBus implements UserInterface {
+
+    /**
+     * The types of events, one per user interface update.
+     */
+    public enum Type {
+        PLACE_CARD, REMOVE_CARD, PLACE_TOKEN, REMOVE_TOKENS, REMOVE_SLOT_TOKENS, REMOVE_TOKEN, COUNTDOWN, ELAPSED,
+        FREEZE, SCORE, WINNERS, DISPOSE;
+
+        private static final Type[] VALUES = values();
+    }
+
+    /**
+     * A view of the event a subscriber is handling, valid until the handler returns.
+     */
+    public static class Event {
+
+        private Type type;
+        private int first;
+        private int second;
+        private long millis;
+        private int[] winners;
+        private long sequence;
+
+        public Type type() {
+            return type;
+        }
+
+        public long sequence() {
+            return sequence;
+        }
+
+        public int card() {
+            return first;
+        }
+
+        public int player() {
+            return first;
+        }
+
+        /**
+         * @return - the slot of a card or token event.
+         */
+        public int slot() {
+            return type == Type.PLACE_CARD || type == Type.PLACE_TOKEN || type == Type.REMOVE_TOKEN ? second : first;
+        }
+
+        public int score() {
+            return second;
+        }
+
+        public long millis() {
+            return millis;
+        }
+
+        public boolean warn() {
+            return second != 0;
+        }
+
+        public int[] winners() {
+            return winners;
+        }
+
+        /**
+         * Copies the event, e.g. to keep it after the handler returns.
+         */
+        public void copyTo(Event event) {
+            event.type = type;
+            event.first = first;
+            event.second = second;
+            event.millis = millis;
+            event.winners = winners;
+            event.sequence = sequence;
+        }
+
+        @Override
+        public String toString() {
+            String event = "#" + sequence + " " + type;
+            switch (type) {
+                case PLACE_CARD: return event + " card " + card() + " slot " + slot();
+                case REMOVE_CARD: case REMOVE_SLOT_TOKENS: return event + " slot " + slot();
+                case PLACE_TOKEN: case REMOVE_TOKEN: return event + " player " + player() + " slot " + slot();
+                case COUNTDOWN: return event + " " + millis() + " ms" + (warn() ? " warn" : "");
+                case ELAPSED: return event + " " + millis() + " ms";
+                case FREEZE: return event + " player " + player() + " " + millis() + " ms";
+                case SCORE: return event + " player " + player() + " score " + score();
+                case WINNERS: return event + " " + Arrays.toString(winners());
+                default: return event;
+            }
+        }
+
+        /**
+         * Replays the event on a user interface.
+         */
+        public void dispatch(UserInterface ui) {
+            switch (type) {
+                case PLACE_CARD: ui.placeCard(card(), slot()); break;
+                case REMOVE_CARD: ui.removeCard(slot()); break;
+                case PLACE_TOKEN: ui.placeToken(player(), slot()); break;
+                case REMOVE_TOKENS: ui.removeTokens(); break;
+                case REMOVE_SLOT_TOKENS: ui.removeTokens(slot()); break;
+                case REMOVE_TOKEN: ui.removeToken(player(), slot()); break;
+                case COUNTDOWN: ui.setCountdown(millis(), warn()); break;
+                case ELAPSED: ui.setElapsed(millis()); break;
+                case FREEZE: ui.setFreeze(player(), millis()); break;
+                case SCORE: ui.setScore(player(), score()); break;
+                case WINNERS: ui.announceWinner(winners()); break;
+                case DISPOSE: ui.dispose(); break;
+            }
+        }
+    }
+
+    /**
+     * Handles the events of a subscriber, on the subscriber's thread.
+     */
+    public interface Handler {
+
+        /**
+         * @param event      - the event (only valid during the call).
+         * @param endOfBatch - true iff no more events are available right now (e.g. a good time to flush or repaint).
+         */
+        void onEvent(Event event, boolean endOfBatch);
+    }
+
+    /**
+     * The number of times a waiting thread yields before it parks.
+     */
+    private static final int SPINS = 200;
+
+    /**
+     * The longest time a subscriber parks before checking for events again, in case a wake-up was missed.
+     */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Logger logger;
+
+    /**
+     * The entries of the ring: the sequence number published in each entry and its fields.
+     */
+    private final AtomicLongArray published;
+    private final int[] types;
+    private final int[] firsts;
+    private final int[] seconds;
+    private final long[] millis;
+    private final int[][] winners;
+    private final int mask;
+
+    /**
+     * The sequence number of the next entry to claim.
+     */
+    private final AtomicLong claimed;
+
+    /**
+     * The lowest subscriber sequence seen by a producer, entries below it may be overwritten.
+     */
+    private volatile long gate;
+
+    private final List<Subscriber> subscribers;
+
+    /**
+     * The latest display updates that found the ring full, by display (type and player): {second, millis} (guarded
+     * by itself).
+     */
+    private final Map<Long, long[]> stale;
+
+    // Volatile - game threads and subscriber threads.
+    private volatile boolean hasStale;
+
+    /**
+     * A subscriber's thread and its position in the event sequence.
+     */
+    private class Subscriber implements Runnable {
+
+        private final String name;
+        private final Handler handler;
+        private final Event event = new Event();
+
+        /**
+         * The sequence number of the next event to handle.
+         */
+        private final AtomicLong sequence = new AtomicLong();
+
+        /**
+         * True while the subscriber thread is (about to be) parked, waiting for an event.
+         */
+        private volatile boolean waiting;
+
+        private volatile ThreadLogger thread;
+
+        Subscriber(String name, Handler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                follow();
+            } finally {
+                // producers no longer wait for this subscriber
+                subscribers.remove(this);
+            }
+        }
+
+        private void follow() {
+            long next = sequence.get();
+            boolean disposed = false;
+            while (!disposed) {
+                if (!available(next) && !await(next)) continue;
+                do {
+                    int index = (int) (next & mask);
+                    event.sequence = next;
+                    event.type = Type.VALUES[types[index]];
+                    event.first = firsts[index];
+                    event.second = seconds[index];
+                    event.millis = millis[index];
+                    event.winners = winners[index];
+                    next++;
+                    disposed = event.type == Type.DISPOSE;
+                    try {
+                        handler.onEvent(event, disposed || !available(next));
+                    } catch (RuntimeException e) {
+                        logger.severe("event subscriber " + name + " failed on " + event.type + ": " + e);
+                    }
+                } while (!disposed && available(next));
+                sequence.set(next);
+                if (hasStale) publishStale();
+            }
+        }
+
+        /**
+         * Yields, and then parks until the event is published.
+         *
+         * @return - true iff the event is available.
+         */
+        private boolean await(long next) {
+            for (int i = 0; i < SPINS; i++) {
+                if (available(next)) return true;
+                Thread.yield();
+            }
+            waiting = true;
+            if (!available(next)) LockSupport.parkNanos(this, PARK_NANOS);
+            waiting = false;
+            return available(next);
+        }
+    }
+
+    /**
+     * @param logger   - where failing subscribers are reported.
+     * @param capacity - the number of entries in the ring (rounded up to a power of 2).
+     */
+    public GameEventBus(Logger logger, int capacity) {
+        this.logger = logger;
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) published.set(i, -1);
+        types = new int[size];
+        firsts = new int[size];
+        seconds = new int[size];
+        millis = new long[size];
+        winners = new int[size][];
+        claimed = new AtomicLong();
+        subscribers = new CopyOnWriteArrayList<>();
+        stale = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a subscriber handling every event. Must be called before the bus is started.
+     *
+     * @param name    - the name of the subscriber's thread.
+     * @param handler - handles the events on the subscriber's thread.
+     */
+    public void subscribe(String name, Handler handler) {
+        subscribers.add(new Subscriber(name, handler));
+    }
+
+    /**
+     * Adds a user interface as a subscriber, replaying every event on it. Must be called before the bus is started.
+     */
+    public void subscribe(String name, UserInterface ui) {
+        subscribe(name, (event, endOfBatch) -> event.dispatch(ui));
+    }
+
+    /**
+     * @return - a handler counting the events of each type in the metrics (as events.<type>).
+     */
+    public static Handler counter(Metrics metrics) {
+        LongAdder[] counters = new LongAdder[Type.VALUES.length];
+        for (Type type : Type.VALUES) counters[type.ordinal()] = metrics.counter("events." + type.name().toLowerCase());
+        return (event, endOfBatch) -> counters[event.type().ordinal()].increment();
+    }
+
+    /**
+     * Starts the subscriber threads.
+     */
+    public void start() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.thread = new ThreadLogger(subscriber, subscriber.name, logger);
+            subscriber.thread.setDaemon(true);
+            subscriber.thread.startWithLog();
+        }
+    }
+
+    private boolean available(long sequence) {
+        return published.get((int) (sequence & mask)) == sequence;
+    }
+
+    /**
+     * Claims the next entry, waiting if the slowest subscriber is a full ring behind.
+     *
+     * @return - the sequence number of the claimed entry.
+     */
+    private long claim() {
+        long sequence = claimed.getAndIncrement();
+        long wrap = sequence - mask - 1;
+        if (wrap >= gate) {
+            int spins = 0;
+            long lowest;
+            while (wrap >= (lowest = lowestSubscriber())) {
+                if (++spins < SPINS) Thread.yield();
+                else LockSupport.parkNanos(1000);
+            }
+            gate = lowest;
+        }
+        return sequence;
+    }
+
+    /**
+     * Claims the next entry if no subscriber is a full ring behind, without waiting.
+     *
+     * @return - the sequence number of the claimed entry, or -1 if the ring is full.
+     */
+    private long tryClaim() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            long wrap = sequence - mask - 1;
+            if (wrap >= gate) {
+                long lowest = lowestSubscriber();
+                if (wrap >= lowest) return -1;
+                gate = lowest;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    private long lowestSubscriber() {
+        long lowest = Long.MAX_VALUE;
+        for (Subscriber subscriber : subscribers) lowest = Math.min(lowest, subscriber.sequence.get());
+        return lowest;
+    }
+
+    private void publish(Type type, int first, int second, long value, int[] players) {
+        write(claim(), type, first, second, value, players);
+        if (hasStale) publishStale();
+    }
+
+    /**
+     * Publishes a display update without waiting: if the ring is full, the update replaces the previous one of the
+     * same display that is waiting for room.
+     */
+    private void publishLatest(Type type, int first, int second, long value) {
+        synchronized (stale) {
+            // older updates of the display go first, or are replaced by this one
+            if (hasStale) publishStale();
+            long sequence = tryClaim();
+            if (sequence >= 0) {
+                stale.remove(key(type, first));
+                write(sequence, type, first, second, value, null);
+                return;
+            }
+            stale.put(key(type, first), new long[]{second, value});
+            hasStale = true;
+        }
+    }
+
+    /**
+     * Publishes the waiting display updates, as long as there is room in the ring.
+     */
+    private void publishStale() {
+        synchronized (stale) {
+            Iterator<Map.Entry<Long, long[]>> entries = stale.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Long, long[]> entry = entries.next();
+                long sequence = tryClaim();
+                if (sequence < 0) return;
+                long key = entry.getKey();
+                long[] update = entry.getValue();
+                write(sequence, Type.VALUES[(int) (key >>> 32)], (int) key, (int) update[0], update[1], null);
+                entries.remove();
+            }
+            hasStale = false;
+        }
+    }
+
+    private static long key(Type type, int first) {
+        return (long) type.ordinal() << 32 | first & 0xFFFFFFFFL;
+    }
+
+    private void write(long sequence, Type type, int first, int second, long value, int[] players) {
+        int index = (int) (sequence & mask);
+        types[index] = type.ordinal();
+        firsts[index] = first;
+        seconds[index] = second;
+        millis[index] = value;
+        winners[index] = players;
+        published.set(index, sequence);
+        for (Subscriber subscriber : subscribers)
+            if (subscriber.waiting) LockSupport.unpark(subscriber.thread);
+    }
+
+    /**
+     * @return - the number of events published so far.
+     */
+    public long published() {
+        return claimed.get();
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        publish(Type.PLACE_CARD, card, slot, 0, null);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        publish(Type.REMOVE_CARD, slot, 0, 0, null);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        publish(Type.PLACE_TOKEN, player, slot, 0, null);
+    }
+
+    @Override
+    public void removeTokens() {
+        publish(Type.REMOVE_TOKENS, 0, 0, 0, null);
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        publish(Type.REMOVE_SLOT_TOKENS, slot, 0, 0, null);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        publish(Type.REMOVE_TOKEN, player, slot, 0, null);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        publishLatest(Type.COUNTDOWN, 0, warn ? 1 : 0, millies);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        publishLatest(Type.ELAPSED, 0, 0, millies);
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        publishLatest(Type.FREEZE, player, 0, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        publish(Type.SCORE, player, score, 0, null);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        publish(Type.WINNERS, 0, 0, 0, players.clone());
+    }
+
+    /**
+     * Publishes the last event and waits (for a bounded time) until every subscriber handled it.
+     */
+    @Override
+    public void dispose() {
+        publish(Type.DISPOSE, 0, 0, 0, null);
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.thread == null) continue;
+            try {
+                subscriber.thread.join(TimeUnit.SECONDS.toMillis(2));
+                if (subscriber.thread.isAlive()) logger.severe("event subscriber " + subscriber.name + " did not finish");
+                else ThreadLogger.logStop(logger, subscriber.name);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
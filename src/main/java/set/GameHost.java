@@ -0,0 +1,621 @@
+package set;
+
+import set.ex.AdminServer;
+import set.ex.Dealer;
+import set.ex.GameEnvironment;
+import set.ex.GameSnapshot;
+import set.ex.ParkedGame;
+import set.ex.Player;
+import set.ex.Player_Bot;
+import set.ex.Table;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many independent games in one process, each with its own Env (configuration, logger, metrics and a silent user
+ * interface), within budgets of games, threads and CPU load: a game that does not fit is rejected when it is admitted.
+ * Two kinds of games are hosted:
+ * - live games: a Dealer and Table with bot players, exactly as in Main, costing 1 + players threads each (their
+ *   deadlines run on the shared TimingWheel).
+ * - light games: a GameEnvironment advanced by one step every stepMillis on the host's shared scheduler, costing no
+ *   threads of their own (the kind that scales to thousands of games per process).
+ * The CPU time and allocations of every game are accounted for until it is over.
+ * Usage: GameHost [light games] [live games] [seconds] [key=value ...]
+ */
+public class GameHost {
+
+    public enum Kind {LIVE, LIGHT}
+
+    public enum State {RUNNING, PARKED, FINISHED, STOPPED}
+
+    /**
+     * The resources used by a game so far.
+     */
+    public static class GameStats {
+
+        public final int id;
+        public final Kind kind;
+        public final State state;
+        public final long wallMillis;
+
+        /**
+         * The thread CPU time of a live game, or the time a light game spent on the scheduler.
+         */
+        public final long cpuNanos;
+
+        /**
+         * The bytes allocated by the threads of a live game (-1 if the JVM does not measure it).
+         */
+        public final long allocatedBytes;
+
+        /**
+         * The threads a live game holds (0 for light games).
+         */
+        public final int threads;
+
+        /**
+         * The steps a light game was advanced by, or the sets checked by the dealer of a live game.
+         */
+        public final long steps;
+
+        GameStats(int id, Kind kind, State state, long wallMillis, long cpuNanos, long allocatedBytes, int threads,
+                  long steps) {
+            this.id = id;
+            this.kind = kind;
+            this.state = state;
+            this.wallMillis = wallMillis;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.threads = threads;
+            this.steps = steps;
+        }
+
+        @Override
+        public String toString() {
+            return "game " + id + " " + kind + " " + state + ": " + wallMillis + " ms, cpu " + cpuNanos / 1_000_000
+                    + " ms, allocated " + allocatedBytes + " bytes, threads " + threads + ", steps " + steps;
+        }
+    }
+
+    /**
+     * A hosted game.
+     */
+    public class Game {
+
+        public final int id;
+        public final Kind kind;
+        private final long started;
+        private volatile long ended;
+        private volatile State state = State.RUNNING;
+
+        /**
+         * The threads a live game costs against the thread budget (0 for light games).
+         */
+        private final int threadCost;
+
+        /**
+         * The running threads of a live game, and the CPU time and allocations of its finished threads.
+         */
+        private final List<Thread> threads = new CopyOnWriteArrayList<>();
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder steps = new LongAdder();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        // live games
+        private Properties properties;
+        private Env env;
+        private Dealer dealer;
+
+        /**
+         * The packed state of a parked live game (null unless parked), and the sets its dealer checked before.
+         */
+        private volatile ParkedGame parked;
+        private long checkedBefore;
+
+        // light games
+        private GameEnvironment environment;
+        private GameEnvironment.Policy policy;
+        private int[] actions;
+        private volatile ScheduledFuture<?> ticks;
+
+        private Game(int id, Kind kind, int threadCost) {
+            this.id = id;
+            this.kind = kind;
+            this.threadCost = threadCost;
+            started = System.currentTimeMillis();
+        }
+
+        public State state() {
+            return state;
+        }
+
+        /**
+         * @return - the environment of a live game (null for light games and parked games).
+         */
+        public Env env() {
+            return env;
+        }
+
+        /**
+         * @return - the environment of a light game (null for live games).
+         */
+        public GameEnvironment environment() {
+            return environment;
+        }
+
+        /**
+         * Creates a thread of a live game, accounting for its resources when it finishes.
+         */
+        private Thread newThread(Runnable target) {
+            Thread thread = new Thread(() -> {
+                try {
+                    target.run();
+                } finally {
+                    threads.remove(Thread.currentThread());
+                    cpuNanos.add(Math.max(0, threadBean.getCurrentThreadCpuTime()));
+                    long allocated = allocatedBytes(Thread.currentThread().getId());
+                    if (allocated > 0) allocatedBytes.add(allocated);
+                }
+            }, "game-" + id + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+
+        /**
+         * Advances a light game by one step, on the scheduler.
+         */
+        private void tick() {
+            if (state != State.RUNNING) return;
+            long start = System.nanoTime();
+            policy.act(environment, actions);
+            boolean over = environment.step(actions);
+            steps.increment();
+            cpuNanos.add(System.nanoTime() - start);
+            if (over) finish(State.FINISHED);
+        }
+
+        /**
+         * Ends the game, releasing its budget (only the first call has an effect).
+         */
+        private void finish(State end) {
+            boolean running;
+            synchronized (this) {
+                if (state != State.RUNNING && state != State.PARKED) return;
+                running = state == State.RUNNING;
+                state = end;
+                ended = System.currentTimeMillis();
+                parked = null;
+            }
+            ScheduledFuture<?> future = ticks;
+            if (future != null) future.cancel(false);
+            AdminServer server = admin;
+            if (server != null) server.unregister("game-" + id);
+            // a parked game released its budget when it was parked
+            if (running) release(this);
+        }
+
+        /**
+         * Ends the game once its dealer ended, unless the dealer was terminated to park the game, or is the dealer of
+         * an earlier run of a resumed game.
+         */
+        private synchronized void dealerEnded(Dealer ended) {
+            if (state == State.RUNNING && dealer == ended) finish(State.FINISHED);
+        }
+
+        /**
+         * @return - the packed state of the game while it is parked, or null.
+         */
+        public ParkedGame parked() {
+            return parked;
+        }
+
+        /**
+         * Stops the game.
+         */
+        public void stop() {
+            if (dealer != null && state == State.RUNNING) dealer.terminate();
+            finish(State.STOPPED);
+        }
+
+        public GameStats stats() {
+            long cpu = cpuNanos.sum();
+            long allocated = allocatedBytes.sum();
+            for (Thread thread : threads) {
+                cpu += Math.max(0, threadBean.getThreadCpuTime(thread.getId()));
+                allocated += Math.max(0, allocatedBytes(thread.getId()));
+            }
+            long end = state == State.RUNNING || state == State.PARKED ? System.currentTimeMillis() : ended;
+            Env live = env;
+            long checked = checkedBefore + (live == null ? 0 : live.metrics.histogram("dealer.commitLockNanos").count());
+            return new GameStats(id, kind, state, end - started, cpu, allocationBean == null ? -1 : allocated,
+                    threads.size(), kind == Kind.LIGHT ? steps.sum() : checked);
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadMXBean threadBean;
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final OperatingSystemMXBean osBean;
+
+    private final ConcurrentHashMap<Integer, Game> games;
+    private final AtomicInteger nextId;
+
+    /**
+     * The games and live game threads admitted and not over yet (guarded by this).
+     */
+    private int runningGames;
+    private int reservedThreads;
+
+    /**
+     * The number of games rejected by each budget.
+     */
+    public final LongAdder rejectedGames;
+    public final LongAdder rejectedThreads;
+    public final LongAdder rejectedCpu;
+
+    /**
+     * The number of parked games.
+     */
+    public final LongAdder parkedGames;
+
+    /**
+     * Where the running live games are registered for inspection (null if none).
+     */
+    private volatile AdminServer admin;
+
+    /**
+     * @param logger - the host's logger, the parent of the games' loggers.
+     * @param config - the host configuration (the Host* budgets).
+     */
+    public GameHost(Logger logger, Config config) {
+        this.logger = logger;
+        this.config = config;
+        AtomicInteger schedulerThreads = new AtomicInteger();
+        scheduler = new ScheduledThreadPoolExecutor(Math.max(1, config.hostThreads), target -> {
+            Thread thread = new Thread(target, "host-" + schedulerThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        threadBean = ManagementFactory.getThreadMXBean();
+        allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        osBean = ManagementFactory.getOperatingSystemMXBean();
+        games = new ConcurrentHashMap<>();
+        nextId = new AtomicInteger();
+        rejectedGames = new LongAdder();
+        rejectedThreads = new LongAdder();
+        rejectedCpu = new LongAdder();
+        parkedGames = new LongAdder();
+    }
+
+    private long allocatedBytes(long threadId) {
+        return allocationBean == null ? -1 : allocationBean.getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * @return - the recent CPU load of the process (0 to 1), or -1 if unknown.
+     */
+    public double cpuLoad() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuLoad();
+        return -1;
+    }
+
+    /**
+     * Reserves the budget of a new game.
+     *
+     * @throws RejectedExecutionException - if a budget is exhausted.
+     */
+    private synchronized void admit(int threadCost) {
+        if (runningGames >= config.hostMaxGames) {
+            rejectedGames.increment();
+            throw new RejectedExecutionException("game budget exhausted: " + runningGames + " games");
+        }
+        if (reservedThreads + threadCost > config.hostMaxThreads) {
+            rejectedThreads.increment();
+            throw new RejectedExecutionException("thread budget exhausted: " + reservedThreads + " threads");
+        }
+        double load = cpuLoad();
+        if (load > config.hostMaxCpuLoad) {
+            rejectedCpu.increment();
+            throw new RejectedExecutionException("cpu budget exhausted: load " + load);
+        }
+        runningGames++;
+        reservedThreads += threadCost;
+    }
+
+    private synchronized void release(Game game) {
+        runningGames--;
+        reservedThreads -= game.threadCost;
+    }
+
+    /**
+     * Starts a live game of bots.
+     *
+     * @param properties - the game configuration.
+     * @return - the game.
+     * @throws RejectedExecutionException - if the game does not fit in the host's budgets.
+     * @throws IllegalArgumentException   - if the game has human or remote players.
+     */
+    public Game startLive(Properties properties) {
+        int id = nextId.getAndIncrement();
+        Config gameConfig = new Config(gameLogger(id), properties);
+        if (gameConfig.humanPlayers > 0 || gameConfig.remotePlayers > 0)
+            throw new IllegalArgumentException("hosted games only have computer players");
+
+        int threadCost = 1 + gameConfig.players;
+        admit(threadCost);
+        Game game = new Game(id, Kind.LIVE, threadCost);
+        game.properties = properties;
+        try {
+            games.put(id, game);
+            launch(game, gameConfig, null);
+        } catch (RuntimeException e) {
+            game.finish(State.STOPPED);
+            throw e;
+        }
+        return game;
+    }
+
+    /**
+     * Registers the live games started from now on with an admin server, as game-{id}, while they run.
+     */
+    public void setAdmin(AdminServer admin) {
+        this.admin = admin;
+    }
+
+    private Logger gameLogger(int id) {
+        return Logger.getLogger(logger.getName() + ".game-" + id);
+    }
+
+    /**
+     * Creates the live structures of a game and starts its dealer.
+     *
+     * @param resumed - the state to continue from (null for a new game).
+     */
+    private void launch(Game game, Config gameConfig, GameSnapshot resumed) {
+        game.env = new Env(gameLogger(game.id), gameConfig, new UserInterfaceMulticast(), new UtilImpl(gameConfig));
+        Player[] players = new Player[gameConfig.players];
+        Table table = new Table(game.env, players);
+        Dealer dealer = new Dealer(game.env, table, players);
+        for (int i = 0; i < players.length; i++) players[i] = new Player_Bot(game.env, dealer, table, i);
+        dealer.setThreadFactory(game::newThread);
+        if (resumed != null) dealer.resume(resumed);
+        game.dealer = dealer;
+        AdminServer server = admin;
+        if (server != null) server.register("game-" + game.id, game.env, dealer, table, players, () -> game.threads);
+        game.newThread(() -> {
+            try {
+                dealer.run();
+            } finally {
+                game.dealerEnded(dealer);
+            }
+        }).start();
+    }
+
+    /**
+     * Parks an idle live game: stops its threads, packs its state and drops its live structures, releasing its budget.
+     *
+     * @return - true iff the game was parked (it was a running live game).
+     */
+    public boolean park(int id) throws InterruptedException {
+        Game game = games.get(id);
+        if (game == null || game.kind != Kind.LIVE) return false;
+        synchronized (game) {
+            if (game.state != State.RUNNING) return false;
+            game.state = State.PARKED;
+        }
+        AdminServer server = admin;
+        if (server != null) server.unregister("game-" + id);
+        game.dealer.terminate();
+        for (Thread thread : game.threads) thread.join(TimeUnit.SECONDS.toMillis(1));
+        if (!game.threads.isEmpty()) logger.warning("game " + id + " parked with " + game.threads.size() + " threads alive");
+        game.checkedBefore += game.env.metrics.histogram("dealer.commitLockNanos").count();
+        game.parked = ParkedGame.pack(game.dealer.snapshot(), game.env.config);
+        game.dealer = null;
+        game.env = null;
+        release(game);
+        parkedGames.increment();
+        return true;
+    }
+
+    /**
+     * Inflates a parked game back to its live structures and continues it where it stopped.
+     *
+     * @return - true iff the game was resumed (it was parked).
+     * @throws RejectedExecutionException - if the game does not fit in the host's budgets (it stays parked).
+     */
+    public boolean unpark(int id) {
+        Game game = games.get(id);
+        if (game == null) return false;
+        synchronized (game) {
+            if (game.state != State.PARKED) return false;
+            admit(game.threadCost);
+            Config gameConfig = new Config(gameLogger(id), game.properties);
+            GameSnapshot snapshot = game.parked.unpack(gameConfig);
+            game.parked = null;
+            game.state = State.RUNNING;
+            launch(game, gameConfig, snapshot);
+        }
+        parkedGames.decrement();
+        return true;
+    }
+
+    /**
+     * Starts a light game, stepped by the host's scheduler.
+     *
+     * @param config     - the game configuration.
+     * @param stepMillis - the time between steps.
+     * @param policy     - chooses the actions of the players in every step.
+     * @param seed       - the seed of the game.
+     * @return - the game.
+     * @throws RejectedExecutionException - if the game does not fit in the host's budgets.
+     */
+    public Game startLight(Config config, long stepMillis, GameEnvironment.Policy policy, long seed) {
+        admit(0);
+        Game game = new Game(nextId.getAndIncrement(), Kind.LIGHT, 0);
+        game.environment = new GameEnvironment(config, stepMillis);
+        game.environment.reset(seed);
+        game.policy = policy;
+        game.actions = new int[config.players];
+        games.put(game.id, game);
+        game.ticks = scheduler.scheduleAtFixedRate(game::tick, stepMillis, stepMillis, TimeUnit.MILLISECONDS);
+        // the game may have been stopped before its ticks were scheduled
+        if (game.state != State.RUNNING) game.ticks.cancel(false);
+        return game;
+    }
+
+    public Game game(int id) {
+        return games.get(id);
+    }
+
+    public Collection<Game> games() {
+        return games.values();
+    }
+
+    /**
+     * Forgets the games that are over (their stats are no longer available).
+     */
+    public void purge() {
+        games.values().removeIf(game -> game.state != State.RUNNING);
+    }
+
+    public synchronized int runningGames() {
+        return runningGames;
+    }
+
+    public synchronized int reservedThreads() {
+        return reservedThreads;
+    }
+
+    /**
+     * Stops all games and the scheduler.
+     */
+    public void shutdown() {
+        for (Game game : games.values()) game.stop();
+        scheduler.shutdownNow();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Logger.getLogger("GameHost");
+        Properties properties = Config.loadProperties("config.properties", logger);
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+        int light = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 10_000;
+        int live = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 10;
+        long seconds = positional.size() > 2 ? Long.parseLong(positional.get(2)) : 10;
+        // hosted games only have bots, and must not log every move
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("RemotePlayers", "0");
+        properties.setProperty("ServerPort", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("CheckpointFile", "");
+        properties.setProperty("LogLevel", properties.getProperty("HostLogLevel", "WARNING"));
+        Config config = new Config(logger, properties);
+        logger.setLevel(Level.WARNING);
+
+        GameHost host = new GameHost(logger, config);
+        AdminServer admin = null;
+        if (config.adminPort > 0) {
+            try {
+                admin = new AdminServer(logger, config.adminPort);
+                host.setAdmin(admin);
+                admin.start();
+            } catch (IOException e) {
+                logger.severe("error creating admin server: " + e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        int rejected = 0;
+        for (int i = 0; i < live; i++)
+            try {
+                host.startLive(properties);
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        for (int i = 0; i < light; i++)
+            try {
+                host.startLight(config, 10, GameEnvironment.RANDOM, i);
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        System.out.printf("admitted %d games (%d rejected) in %d ms%n", host.games().size(), rejected,
+                (System.nanoTime() - start) / 1_000_000);
+
+        for (long s = 1; s <= seconds; s++) {
+            Thread.sleep(1000);
+            System.out.printf("%3d s: %d running, %d threads reserved, cpu load %.2f%n", s, host.runningGames(),
+                    host.reservedThreads(), host.cpuLoad());
+        }
+
+        // park the live games still running, then continue them
+        int parked = 0;
+        long parkedBytes = 0;
+        start = System.nanoTime();
+        for (Game game : host.games())
+            if (host.park(game.id)) {
+                parked++;
+                parkedBytes += game.parked().bytes().length;
+            }
+        if (parked > 0) {
+            System.out.printf("parked %d live games in %d ms, %.1f bytes per game, %d threads reserved%n", parked,
+                    (System.nanoTime() - start) / 1_000_000, (double) parkedBytes / parked, host.reservedThreads());
+            start = System.nanoTime();
+            int resumed = 0;
+            int stillParked = 0;
+            for (Game game : host.games())
+                try {
+                    if (host.unpark(game.id)) resumed++;
+                } catch (RejectedExecutionException e) {
+                    stillParked++;
+                }
+            System.out.printf("resumed %d games in %d ms (%d rejected, still parked)%n", resumed,
+                    (System.nanoTime() - start) / 1_000_000, stillParked);
+            Thread.sleep(1000);
+        }
+
+        long[] cpu = new long[Kind.values().length];
+        long[] steps = new long[Kind.values().length];
+        int[] count = new int[Kind.values().length];
+        for (Game game : host.games()) {
+            GameStats stats = game.stats();
+            cpu[stats.kind.ordinal()] += stats.cpuNanos;
+            steps[stats.kind.ordinal()] += stats.steps;
+            count[stats.kind.ordinal()]++;
+        }
+        for (Kind kind : Kind.values())
+            if (count[kind.ordinal()] > 0)
+                System.out.printf("%-5s games: %d, cpu %d ms (%.3f ms per game), steps/events %,d%n", kind,
+                        count[kind.ordinal()], cpu[kind.ordinal()] / 1_000_000,
+                        cpu[kind.ordinal()] / 1e6 / count[kind.ordinal()], steps[kind.ordinal()]);
+        host.shutdown();
+        if (admin != null) admin.stop();
+    }
+}
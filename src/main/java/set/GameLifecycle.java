@@ -0,0 +1,261 @@
+package set;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Starts and stops the threads of a game. A game is STARTING until its threads run, RUNNING, DRAINING once it is
+ * asked to stop, and STOPPED once all of its threads ended or the stop deadline passed.
+ * Stopping never blocks the caller (e.g. the event dispatch thread when the window is closed): the stop actions run on
+ * a shutdown thread, which waits for the game's threads until the deadline, reports the threads that missed it (with
+ * their stack traces), runs the cleanup actions and records the shutdown latency (lifecycle.shutdownNanos).
+ */
+public class GameLifecycle {
+
+    public enum State {STARTING, RUNNING, DRAINING, STOPPED}
+
+    private final Logger logger;
+    private final long deadlineNanos;
+    private final Histogram shutdownNanos;
+
+    /**
+     * The threads of the game, and the ones that ended (guarded by this).
+     */
+    private final List<Thread> threads;
+    private final Set<Thread> ended;
+    private final AtomicInteger threadNumber;
+
+    /**
+     * Actions that ask the game entities to stop, and cleanup actions run once their threads ended, in order.
+     */
+    private final List<Runnable> stopActions;
+    private final List<Runnable> cleanupActions;
+
+    /**
+     * The state of the game (guarded by this, notified on every change).
+     */
+    private volatile State state;
+
+    /**
+     * Why the game was stopped, and the threads that missed the stop deadline.
+     */
+    private volatile String reason;
+    private volatile List<Thread> stragglers;
+
+    /**
+     * @param logger         - where the shutdown and the stragglers are reported.
+     * @param deadlineMillis - the time the game's threads have to end once the game is asked to stop.
+     * @param metrics        - where the shutdown latency is recorded.
+     */
+    public GameLifecycle(Logger logger, long deadlineMillis, Metrics metrics) {
+        this.logger = logger;
+        deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        shutdownNanos = metrics.histogram("lifecycle.shutdownNanos");
+        threads = new CopyOnWriteArrayList<>();
+        ended = new HashSet<>();
+        threadNumber = new AtomicInteger();
+        stopActions = new CopyOnWriteArrayList<>();
+        cleanupActions = new CopyOnWriteArrayList<>();
+        stragglers = Collections.emptyList();
+        state = State.STARTING;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return - why the game was stopped (null while it was not asked to stop).
+     */
+    public String reason() {
+        return reason;
+    }
+
+    /**
+     * @return - the threads that were still alive when the stop deadline passed.
+     */
+    public List<Thread> stragglers() {
+        return stragglers;
+    }
+
+    /**
+     * @return - the threads of the game (e.g. for thread dumps).
+     */
+    public List<Thread> threads() {
+        return Collections.unmodifiableList(threads);
+    }
+
+    /**
+     * Creates a thread of the game (not started), which the game waits for when it stops.
+     */
+    public ThreadLogger newThread(Runnable target, String name) {
+        ThreadLogger[] thread = new ThreadLogger[1];
+        thread[0] = new ThreadLogger(() -> {
+            try {
+                target.run();
+            } finally {
+                synchronized (this) {
+                    ended.add(thread[0]);
+                    notifyAll();
+                }
+                ThreadLogger.logStop(logger, name);
+            }
+        }, name, logger);
+        threads.add(thread[0]);
+        return thread[0];
+    }
+
+    /**
+     * @return - a factory of game threads named prefix-1, prefix-2, ... (e.g. for the dealer to start the players).
+     */
+    public ThreadFactory threadFactory(String prefix) {
+        return target -> newThread(target, prefix + "-" + threadNumber.incrementAndGet());
+    }
+
+    /**
+     * Adds an action asking game entities to stop (e.g. dealer.terminate), run first when the game stops.
+     */
+    public void onStop(Runnable action) {
+        stopActions.add(action);
+    }
+
+    /**
+     * Adds a cleanup action (e.g. disposing the user interface), run once the game's threads ended or missed the
+     * deadline.
+     */
+    public void onStopped(Runnable action) {
+        cleanupActions.add(action);
+    }
+
+    /**
+     * Marks the game as running, once its threads were started.
+     *
+     * @return - false iff the game was asked to stop meanwhile.
+     */
+    public synchronized boolean running() {
+        if (state != State.STARTING) return false;
+        state = State.RUNNING;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Asks the game to stop, without waiting for it (only the first call has an effect).
+     *
+     * @return - true iff this call stopped the game.
+     */
+    public boolean stop(String why) {
+        long start = System.nanoTime();
+        synchronized (this) {
+            if (state == State.DRAINING || state == State.STOPPED) return false;
+            reason = why;
+            state = State.DRAINING;
+            notifyAll();
+        }
+        ThreadLogger shutdown = new ThreadLogger(() -> drain(start), "shutdown", logger);
+        shutdown.setDaemon(true);
+        shutdown.startWithLog();
+        return true;
+    }
+
+    /**
+     * Stops the game entities and waits for their threads until the deadline. Runs on the shutdown thread.
+     */
+    private void drain(long start) {
+        logger.severe("stopping the game: " + reason);
+        runAll(stopActions);
+        long deadline = start + deadlineNanos;
+        try {
+            synchronized (this) {
+                for (long left; !allEnded() && (left = deadline - System.nanoTime()) > 0; )
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Thread> alive = new ArrayList<>();
+        for (Thread thread : threads) if (thread.isAlive() && !isEnded(thread)) alive.add(thread);
+        stragglers = alive;
+        for (Thread thread : alive) {
+            StringBuilder trace = new StringBuilder("thread " + thread.getName() + " missed the shutdown deadline ("
+                    + thread.getState() + "):");
+            for (StackTraceElement element : thread.getStackTrace()) trace.append("\n\tat ").append(element);
+            logger.severe(trace.toString());
+        }
+        runAll(cleanupActions);
+
+        long elapsed = System.nanoTime() - start;
+        shutdownNanos.record(elapsed);
+        logger.severe("game stopped in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms"
+                + (alive.isEmpty() ? "" : ", " + alive.size() + " threads missed the deadline"));
+        synchronized (this) {
+            state = State.STOPPED;
+            notifyAll();
+        }
+    }
+
+    private void runAll(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                logger.severe("stop action failed: " + e);
+            }
+        }
+    }
+
+    private synchronized boolean allEnded() {
+        for (Thread thread : threads) if (thread.getState() != Thread.State.NEW && !ended.contains(thread)) return false;
+        return true;
+    }
+
+    private synchronized boolean isEnded(Thread thread) {
+        return ended.contains(thread);
+    }
+
+    /**
+     * Waits until a thread of the game ended, or the game stopped.
+     */
+    public synchronized void join(Thread thread) throws InterruptedException {
+        while (!ended.contains(thread) && state != State.STOPPED) wait();
+    }
+
+    /**
+     * Waits until the game stopped.
+     *
+     * @return - true iff the game stopped within the given time.
+     */
+    public synchronized boolean awaitStopped(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (long left; state != State.STOPPED && (left = deadline - System.nanoTime()) > 0; )
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        return state == State.STOPPED;
+    }
+
+    /**
+     * Waits until the game is asked to stop (e.g. to pause at the end of the game unless the window is closed).
+     *
+     * @return - true iff the game was asked to stop within the given time.
+     */
+    public synchronized boolean awaitStopRequest(long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (long left; (state == State.STARTING || state == State.RUNNING) && (left = deadline - System.nanoTime()) > 0; )
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        return state == State.DRAINING || state == State.STOPPED;
+    }
+
+    /**
+     * Waits until the game stopped (which takes at most the stop deadline and the cleanup actions).
+     */
+    public synchronized void awaitStopped() throws InterruptedException {
+        while (state != State.STOPPED) wait();
+    }
+}
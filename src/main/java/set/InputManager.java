@@ -40,11 +40,14 @@ class InputManager extends KeyAdapter {
     @Override
     public void keyPressed(KeyEvent e) {
         // dispatch the key event to the player according to the key map
+        // (the press is logged by the player thread, keeping the event dispatch thread responsive)
         int keyCode = e.getKeyCode();
+        if (keyCode >= keyMap.length) return;
         int player = keyMap[keyCode] - 1;
         if (player >= 0){
-            logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
-            players[player].keyPressed(keyToSlot[keyCode]);
+            // stamp the press with the time of the event rather than the time it was dispatched
+            long age = Math.max(0, System.currentTimeMillis() - e.getWhen());
+            players[player].keyPressed(keyToSlot[keyCode], System.nanoTime() - age * 1_000_000L);
         }
     }
 }
@@ -1,17 +1,30 @@
 package set;
 
+import set.ex.AdminServer;
+import set.ex.Checkpoint;
 import set.ex.Dealer;
+import set.ex.GameSnapshot;
+import set.ex.HintService;
 import set.ex.Player;
 import set.ex.Player_Bot;
 import set.ex.Player_Human;
+import set.ex.Player_Remote;
 import set.ex.Table;
+import set.ex.TableLayouts;
+import set.net.GameServer;
+import set.net.SpectatorBroadcast;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.*;
 
 /**
@@ -20,16 +33,20 @@ import java.util.logging.*;
 public class Main {
 
     private static Dealer dealer;
-    private static Thread mainThread;
+    private static volatile GameLifecycle lifecycle;
 
-    private static boolean xButtonPressed = false;
+    // Volatile - EDT and Main thread.
+    private static volatile boolean xButtonPressed = false;
     private static Logger logger;
 
-    public static void xButtonPressed() throws InterruptedException {
+    /**
+     * Stops the game without waiting for it (called on the EDT).
+     */
+    public static void xButtonPressed() {
         if (logger != null) logger.severe("exit button pressed");
         xButtonPressed = true;
-        if (dealer != null) dealer.terminate();
-        mainThread.join();
+        GameLifecycle game = lifecycle;
+        if (game != null) game.stop("exit button pressed");
     }
 
     /**
@@ -39,55 +56,205 @@ public class Main {
      */
     public static void main(String[] args) {
 
-        mainThread = Thread.currentThread();
-
         // create the game environment objects
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
         Config config = new Config(logger, "config.properties");
         Util util = new UtilImpl(config);
 
+        // the window is built on its own thread, overlapping the game setup and the first deal
         Player[] players = new Player[config.players];
-        UserInterface ui = null;
-        try {
-            ui = new UserInterfaceSwing(logger, config, players);
-        } catch (UnsupportedOperationException | IllegalArgumentException e) {
-            logger.severe("error creating swing user interface: " + e.getMessage());
-            logger.severe("will try to run without user interface");
-            if (config.humanPlayers > 0)
-                logger.severe("warning: running with human players with no user interface");
+        FutureTask<UserInterface> window = new FutureTask<>(() -> createWindow(config, players));
+        ThreadLogger windowThread = new ThreadLogger(window, "ui-init", logger);
+        windowThread.setDaemon(true);
+        windowThread.startWithLog();
+
+        GameServer server = null;
+        SpectatorBroadcast spectators = null;
+        if (config.serverPort > 0) {
+            try {
+                spectators = new SpectatorBroadcast(config);
+                server = new GameServer(logger, config, players, spectators);
+            } catch (IOException e) {
+                spectators = null;
+                logger.severe("error creating game server: " + e.getMessage());
+                if (config.remotePlayers > 0)
+                    logger.severe("warning: running with remote players with no game server");
+            }
         }
-        ui = new UserInterfaceDecorator(logger, util, ui);
 
-        Env env = new Env(logger, config, ui, util);
+        // the game publishes user interface updates as events, every observer follows them on its own thread
+        GameEventBus events = new GameEventBus(logger, config.eventRingSize);
+        events.subscribe("ui", windowHandler(window, util));
+        if (spectators != null) events.subscribe("spectators", spectators);
+
+        Env env = new Env(logger, config, events, util);
+        events.subscribe("event-metrics", GameEventBus.counter(env.metrics));
+        events.start();
+        GameLifecycle game = new GameLifecycle(logger, config.shutdownDeadlineMillis, env.metrics);
 
         // create the game entities
         Table table = new Table(env, players);
         dealer = new Dealer(env, table, players);
         int humanPlayers = env.config.humanPlayers;
+        int remotePlayers = env.config.remotePlayers;
         for (int i = 0; i < players.length; i++) {
             if (i < humanPlayers) {
                 players[i] = new Player_Human(env, dealer, table, i);
+            } else if (i < humanPlayers + remotePlayers) {
+                players[i] = new Player_Remote(env, dealer, table, i);
             } else {
                 players[i] = new Player_Bot(env, dealer, table, i);
             }
         }
 
-        // start the dealer thread
-        ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
+        // continue the saved game, if any
+        Checkpoint checkpoint = null;
+        if (!config.checkpointFile.isEmpty()) {
+            try {
+                long start = System.nanoTime();
+                checkpoint = new Checkpoint(config);
+                GameSnapshot snapshot = checkpoint.load();
+                if (snapshot != null) {
+                    dealer.resume(snapshot);
+                    logger.severe("resuming saved game from " + config.checkpointFile + " (loaded in "
+                            + (System.nanoTime() - start) / 1000 + " microseconds)");
+                }
+                dealer.setCheckpoint(checkpoint);
+            } catch (IOException e) {
+                logger.severe("error opening checkpoint file " + config.checkpointFile + ": " + e.getMessage());
+            }
+        }
+
+        // start rounds from fixed layouts, if any
+        if (!config.tableLayoutFile.isEmpty()) {
+            try {
+                List<int[]> layouts = TableLayouts.load(Paths.get(config.tableLayoutFile), config, logger);
+                dealer.setLayouts(layouts);
+                logger.severe("loaded " + layouts.size() + " table layouts from " + config.tableLayoutFile);
+            } catch (IOException e) {
+                logger.severe("error reading table layout file " + config.tableLayoutFile + ": " + e.getMessage());
+            }
+        }
+
+        // print hints from their own thread
+        HintService hintService = null;
+        if (config.hints) {
+            hintService = new HintService(env, table);
+            hintService.subscribe(hintService::print);
+            dealer.setHintService(hintService);
+        }
+
+        // inspect and control the game from localhost
+        AdminServer admin = null;
+        if (config.adminPort > 0) {
+            try {
+                admin = new AdminServer(logger, config.adminPort);
+                admin.register("main", env, dealer, table, players, game::threads);
+            } catch (IOException e) {
+                logger.severe("error creating admin server: " + e.getMessage());
+            }
+        }
+
+        // stopping the game: first ask every entity to stop, then clean up once their threads ended (or missed the
+        // shutdown deadline)
+        dealer.setThreadFactory(game.threadFactory("player"));
+        game.onStop(dealer::terminate);
+        if (server != null) game.onStop(server::terminate);
+        if (hintService != null) game.onStop(hintService::terminate);
+        game.onStopped(() -> {
+            if (!xButtonPressed) env.ui.dispose();
+        });
+        if (admin != null) game.onStopped(admin::stop);
+        Checkpoint savedGame = checkpoint;
+        if (savedGame != null) game.onStopped(() -> {
+            try {
+                savedGame.close();
+            } catch (IOException ignored) {}
+        });
+
+        // start the admin server, hint service, server and dealer threads
+        if (admin != null) admin.start();
+        if (hintService != null) {
+            ThreadLogger hintThread = game.newThread(hintService, "hints");
+            hintThread.setDaemon(true);
+            hintThread.startWithLog();
+        }
+        if (server != null) {
+            ThreadLogger serverThread = game.newThread(server, "server");
+            serverThread.setDaemon(true);
+            serverThread.startWithLog();
+        }
+        ThreadLogger dealerThread = game.newThread(dealer, "dealer");
         dealerThread.startWithLog();
+        lifecycle = game;
+        game.running();
+        // the window may have been closed before the game could be stopped
+        if (xButtonPressed) game.stop("exit button pressed");
 
         try {
-            // shutdown stuff
-            dealerThread.joinWithLog();
-            if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
+            // the dealer ends when the game is over, or when the game is stopped (e.g. the window is closed)
+            game.join(dealerThread);
+            if (config.endGamePauseMillies > 0) game.awaitStopRequest(config.endGamePauseMillies);
+            game.stop("game over");
+            game.awaitStopped();
         } catch (InterruptedException ignored) {
         } finally {
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
-            if (!xButtonPressed) env.ui.dispose();
+            logger.severe("time to first deal: " + env.metrics.histogram("dealer.timeToFirstDealNanos"));
+            logger.severe("shutdown latency: " + env.metrics.histogram("lifecycle.shutdownNanos"));
             for (Handler h : logger.getHandlers()) h.flush();
+            // threads that missed the shutdown deadline must not keep the process alive
+            if (!game.stragglers().isEmpty()) System.exit(1);
+        }
+    }
+
+    /**
+     * Builds the Swing window (called on its own thread).
+     *
+     * @return - the window, or null if it cannot be shown (e.g. there is no display).
+     */
+    private static UserInterface createWindow(Config config, Player[] players) {
+        try {
+            return new UserInterfaceSwing(logger, config, players);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            logger.severe("error creating swing user interface: " + e.getMessage());
+            logger.severe("will try to run without user interface");
+            if (config.humanPlayers > 0)
+                logger.severe("warning: running with human players with no user interface");
+            return null;
+        }
+    }
+
+    /**
+     * @return - a handler replaying the events on the window, which waits for the window to be built on the first event
+     * (the events published meanwhile wait in the ring of the event bus).
+     */
+    private static GameEventBus.Handler windowHandler(Future<UserInterface> window, Util util) {
+        UserInterface[] ui = new UserInterface[1];
+        return (event, endOfBatch) -> {
+            if (ui[0] == null) ui[0] = new UserInterfaceDecorator(logger, util, awaitWindow(window));
+            event.dispatch(ui[0]);
+        };
+    }
+
+    private static UserInterface awaitWindow(Future<UserInterface> window) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return window.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            logger.severe("error creating swing user interface: " + e.getCause());
+            return null;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,51 @@
+package set;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The game's named counters and histograms, shared by all of the game's entities.
+ */
+public class Metrics {
+
+    private final ConcurrentHashMap<String, LongAdder> counters;
+    private final ConcurrentHashMap<String, Histogram> histograms;
+
+    public Metrics() {
+        counters = new ConcurrentHashMap<>();
+        histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return - the counter with the given name (created on first use).
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * @return - the histogram with the given name (created on first use).
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * @return - the current value of every counter and histogram, sorted by name.
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, Long.toString(counter.sum())));
+        histograms.forEach((name, histogram) -> snapshot.put(name, histogram.toString()));
+        return snapshot;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        snapshot().forEach((name, value) -> sb.append(name).append(": ").append(value).append(System.lineSeparator()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,213 @@
+package set;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The scores of the players, and an incremental ranking of the top k players (by score, ties by player id).
+ * Scores are kept in an atomic array, and a single score is read without locking. Changing a score moves the player
+ * within the ranking by swapping it with its neighbours: a point moves a player up past the players it overtakes only,
+ * so a point costs O(1) in the common case and never more than O(k), whatever the number of players.
+ * Writers hold a write lock. Readers take consistent snapshots (of all the scores, e.g. to find the winners, or of the
+ * ranking) with optimistic reads that retry if a score changed meanwhile, so they never block the writers.
+ */
+public class Scoreboard {
+
+    /**
+     * The number of optimistic reads a snapshot attempts before falling back to the read lock.
+     */
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    private final AtomicIntegerArray scores;
+
+    /**
+     * The ids of the top players by rank, and the rank of each player in it (-1 if not ranked).
+     */
+    private final int[] top;
+    private final int[] rank;
+
+    private final StampedLock lock;
+
+    /**
+     * @param players - the number of players.
+     * @param k       - the number of players ranked.
+     */
+    public Scoreboard(int players, int k) {
+        scores = new AtomicIntegerArray(players);
+        top = new int[Math.max(0, Math.min(k, players))];
+        rank = new int[players];
+        Arrays.fill(rank, -1);
+        // all scores are 0, the ranking starts by player id
+        for (int i = 0; i < top.length; i++) {
+            top[i] = i;
+            rank[i] = i;
+        }
+        lock = new StampedLock();
+    }
+
+    public int players() {
+        return scores.length();
+    }
+
+    /**
+     * @return - the number of players ranked.
+     */
+    public int k() {
+        return top.length;
+    }
+
+    public int score(int player) {
+        return scores.get(player);
+    }
+
+    /**
+     * Awards a point to a player.
+     *
+     * @return - the new score of the player.
+     */
+    public int increment(int player) {
+        long stamp = lock.writeLock();
+        try {
+            int score = scores.incrementAndGet(player);
+            rerank(player, true);
+            return score;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sets the score of a player (e.g. when a saved game is resumed).
+     */
+    public void set(int player, int score) {
+        long stamp = lock.writeLock();
+        try {
+            int old = scores.getAndSet(player, score);
+            rerank(player, score >= old);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Moves a player whose score changed within the ranking. Must be called while holding the write lock.
+     */
+    private void rerank(int player, boolean up) {
+        if (top.length == 0) return;
+        int position = rank[player];
+        if (up) {
+            if (position < 0) {
+                // an unranked player enters the ranking in place of the last ranked player it overtook
+                int last = top.length - 1;
+                if (!ahead(player, top[last])) return;
+                rank[top[last]] = -1;
+                top[last] = player;
+                rank[player] = position = last;
+            }
+            while (position > 0 && ahead(player, top[position - 1])) swap(position, --position);
+            return;
+        }
+        if (position < 0) return;
+        while (position < top.length - 1 && ahead(top[position + 1], player)) swap(position, ++position);
+        if (position < top.length - 1) return;
+        // the last ranked player went down, an unranked player may be ahead of it now
+        int best = -1;
+        for (int other = 0; other < rank.length; other++)
+            if (rank[other] < 0 && (best < 0 || ahead(other, best))) best = other;
+        if (best >= 0 && ahead(best, player)) {
+            rank[player] = -1;
+            top[position] = best;
+            rank[best] = position;
+        }
+    }
+
+    /**
+     * @return - true iff player a ranks above player b.
+     */
+    private boolean ahead(int a, int b) {
+        int scoreA = scores.get(a);
+        int scoreB = scores.get(b);
+        return scoreA > scoreB || scoreA == scoreB && a < b;
+    }
+
+    private void swap(int i, int j) {
+        int player = top[i];
+        top[i] = top[j];
+        top[j] = player;
+        rank[top[i]] = i;
+        rank[top[j]] = j;
+    }
+
+    /**
+     * Copies a consistent snapshot of the ranking.
+     *
+     * @param players - an array of at least k() entries, filled with the ids of the top players by rank.
+     * @param points  - an array of at least k() entries, filled with their scores.
+     * @return - the number of players copied (k()).
+     */
+    public int top(int[] players, int[] points) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) continue;
+            copyTop(players, points);
+            if (lock.validate(stamp)) return top.length;
+        }
+        long stamp = lock.readLock();
+        try {
+            copyTop(players, points);
+            return top.length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void copyTop(int[] players, int[] points) {
+        for (int i = 0; i < top.length; i++) {
+            players[i] = top[i];
+            points[i] = scores.get(top[i]);
+        }
+    }
+
+    /**
+     * Copies a consistent snapshot of all the scores (no point is awarded between the first and the last copied).
+     *
+     * @param points - an array of at least players() entries.
+     */
+    public void snapshot(int[] points) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) continue;
+            for (int player = 0; player < points.length && player < scores.length(); player++)
+                points[player] = scores.get(player);
+            if (lock.validate(stamp)) return;
+        }
+        long stamp = lock.readLock();
+        try {
+            for (int player = 0; player < points.length && player < scores.length(); player++)
+                points[player] = scores.get(player);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return - the ids of the players with the highest score, in a consistent snapshot of the scores.
+     */
+    public int[] leaders() {
+        int[] points = new int[scores.length()];
+        snapshot(points);
+        int max = Integer.MIN_VALUE;
+        int count = 0;
+        for (int score : points) {
+            if (score > max) {
+                max = score;
+                count = 0;
+            }
+            if (score == max) count++;
+        }
+        int[] leaders = new int[count];
+        for (int player = 0, i = 0; player < points.length; player++) if (points[player] == max) leaders[i++] = player;
+        return leaders;
+    }
+}
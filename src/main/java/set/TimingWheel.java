@@ -0,0 +1,256 @@
+package set;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Runs short tasks at deadlines (round timeouts, countdown and freeze display ticks, UX delays) on a single thread
+ * shared by all the games in the process, instead of a sleeping thread per deadline.
+ * The deadlines are hashed into a wheel of buckets, one per tick: a timeout lands in the bucket of its deadline tick,
+ * with the number of full turns of the wheel left before it is due. Scheduling and cancelling only add the timeout
+ * to a queue (O(1), no lock), the ticking thread moves them into or out of the buckets on its next tick, and then
+ * runs the due timeouts of the current bucket. The ticking thread parks while nothing is scheduled.
+ * Tasks run on the ticking thread and must not block.
+ */
+public class TimingWheel {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+
+        /**
+         * The deadline, in nanoseconds since the wheel started.
+         */
+        private final long deadline;
+
+        private volatile int state;
+
+        // Ticking thread only.
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task if it did not run yet.
+         *
+         * @return - true iff the task will not run.
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) return state == CANCELLED;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts of a tick (ticking thread only).
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) head = timeout;
+            else tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) head = timeout.next;
+            else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev;
+            else timeout.next.prev = timeout.prev;
+            timeout.next = timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private static volatile TimingWheel shared;
+
+    private final Logger logger;
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final long startNanos;
+
+    /**
+     * Timeouts scheduled or cancelled since the last tick.
+     */
+    private final Queue<Timeout> pending;
+    private final Queue<Timeout> cancelled;
+
+    /**
+     * The next tick to run and the number of timeouts in the buckets (ticking thread only).
+     */
+    private long tick;
+    private int scheduled;
+
+    /**
+     * True while the ticking thread is (about to be) parked with nothing scheduled.
+     */
+    private volatile boolean idle;
+
+    private final Thread worker;
+
+    /**
+     * @param logger     - where failing tasks are reported.
+     * @param tickMillis - the resolution of the deadlines.
+     * @param buckets    - the number of ticks in a turn of the wheel (rounded up to a power of 2).
+     */
+    public TimingWheel(Logger logger, long tickMillis, int buckets) {
+        this.logger = logger;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, buckets) * 2 - 1);
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) this.buckets[i] = new Bucket();
+        mask = size - 1;
+        pending = new ConcurrentLinkedQueue<>();
+        cancelled = new ConcurrentLinkedQueue<>();
+        startNanos = System.nanoTime();
+        worker = new Thread(this::run, "timing-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return - the wheel shared by all the games in the process (1 millisecond ticks), started on first use.
+     */
+    public static TimingWheel shared() {
+        TimingWheel wheel = shared;
+        if (wheel == null) {
+            synchronized (TimingWheel.class) {
+                if ((wheel = shared) == null) shared = wheel = new TimingWheel(Logger.getLogger("TimingWheel"), 1, 1024);
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * Runs a task on the ticking thread once the delay passed.
+     *
+     * @return - a handle to cancel the task.
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.add(timeout);
+        if (idle) LockSupport.unpark(worker);
+        return timeout;
+    }
+
+    /**
+     * Blocks the calling thread for the given time, woken up by the ticking thread. Interrupts do not cut the pause
+     * short, the interrupt status is kept for the caller.
+     */
+    public void pause(long millis) {
+        pause(millis, () -> false);
+    }
+
+    /**
+     * Like pause, but ends the pause early once the condition holds (checked whenever the calling thread is woken up,
+     * e.g. interrupted after the condition was set).
+     */
+    public void pause(long millis, BooleanSupplier until) {
+        if (millis <= 0) return;
+        Thread thread = Thread.currentThread();
+        Timeout timeout = schedule(millis, () -> LockSupport.unpark(thread));
+        boolean interrupted = false;
+        while (!timeout.isExpired() && !until.getAsBoolean()) {
+            LockSupport.park(this);
+            // parking returns at once while the interrupt status is set
+            if (Thread.interrupted()) interrupted = true;
+        }
+        timeout.cancel();
+        if (interrupted) thread.interrupt();
+    }
+
+    private void run() {
+        while (true) {
+            waitForTick();
+            for (Timeout timeout; (timeout = cancelled.poll()) != null; ) {
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                    scheduled--;
+                }
+            }
+            for (Timeout timeout; (timeout = pending.poll()) != null; ) {
+                if (timeout.state != PENDING) continue;
+                long due = timeout.deadline / tickNanos;
+                timeout.remainingRounds = (due - tick) / buckets.length;
+                // a timeout whose tick already passed runs on the current tick
+                buckets[(int) (Math.max(due, tick) & mask)].add(timeout);
+                scheduled++;
+            }
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Sleeps until the next tick, or until a timeout is scheduled while nothing else is.
+     */
+    private void waitForTick() {
+        while (scheduled == 0 && pending.isEmpty()) {
+            idle = true;
+            if (scheduled == 0 && pending.isEmpty()) LockSupport.park(this);
+            idle = false;
+            // skip the ticks that passed while idle
+            tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos);
+        }
+        long deadline = (tick + 1) * tickNanos;
+        for (long left; (left = deadline - (System.nanoTime() - startNanos)) > 0; ) LockSupport.parkNanos(this, left);
+    }
+
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                scheduled--;
+                if (Timeout.STATE.compareAndSet(timeout, PENDING, EXPIRED)) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        logger.severe("timing wheel task failed: " + e);
+                    }
+                }
+            } else timeout.remainingRounds--;
+            timeout = next;
+        }
+    }
+}
@@ -4,10 +4,16 @@ import set.ex.Player;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
 import java.io.FileNotFoundException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -21,9 +27,20 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final TimerPanel timerPanel;
     private final GamePanel gamePanel;
     private final PlayersPanel playersPanel;
+    private final RankingPanel rankingPanel;
     private final WinnerPanel winnerPanel;
     private final Config config;
 
+    /**
+     * Measures the paints, the event dispatch thread and the updates (overlay toggled with F3).
+     */
+    private final EdtMonitor monitor;
+
+    /**
+     * Decks up to this size keep all of their card images once loaded.
+     */
+    private static final int MAX_CACHED_IMAGES = 1024;
+
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
@@ -31,9 +48,13 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
 
         this.config = config;
+        monitor = new EdtMonitor(logger, config);
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
-        playersPanel = new PlayersPanel();
+        // a column per player, or the players ranked by score when they do not fit
+        boolean ranked = config.players > config.scoreboardRows;
+        playersPanel = ranked ? null : new PlayersPanel();
+        rankingPanel = ranked ? new RankingPanel() : null;
         winnerPanel = new WinnerPanel();
 
         setLayout(new GridBagLayout());
@@ -48,7 +69,7 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         gbc.gridy++;
         add(gamePanel, gbc);
         gbc.gridy++;
-        add(playersPanel, gbc);
+        add(ranked ? rankingPanel : playersPanel, gbc);
         gbc.gridy++;
         add(winnerPanel, gbc);
         gbc.gridwidth = 1;
@@ -61,10 +82,17 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
         setTitle("Set Card Game");
         setLocationRelativeTo(null);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
         addKeyListener(new InputManager(logger, config, players));
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == EdtMonitor.TOGGLE_KEY) monitor.toggle();
+            }
+        });
         addWindowListener(new WindowManager());
+        monitor.start(getLayeredPane(), config.perfOverlay);
 
         EventQueue.invokeLater(() -> setVisible(true));
     }
@@ -103,10 +131,13 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private class GamePanel extends JLayeredPane {
 
         private final Image emptyCard;
-        private final Image[] deck;
+        private final Map<Integer, Image> cardImages;
         private final Image[][] grid;
+        private final String[][] gridText;
         private final boolean[][][] playerTokens;
-        private final JLabel[][] tokenText;
+        private final String[][] tokenText;
+        private final Font tokenFont;
+        private final Font cardTextFont;
 
         private Image loadImageResource(String filename) {
             URL imageResource = getClass().getClassLoader().getResource(filename);
@@ -119,56 +150,67 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
             setPreferredSize(new Dimension(config.columns * config.cellWidth, config.rows * config.cellHeight));
 
-            // init deck and load all pictures from png files
+            // card images are loaded when first placed, keeping at most a few tables worth of them for large decks
             assert config.featureSize < 10; // otherwise there will be naming conflicts
-
-            // load the image resources
-            deck = new Image[config.deckSize];
-            for (int i = 0; i < config.deckSize; ++i)
-                deck[i] = loadImageResource("cards/" + intInBaseToPaddedString(i, config.featureCount, config.featureSize) + ".png");
+            int cacheSize = Math.max(config.deckSize <= MAX_CACHED_IMAGES ? config.deckSize : 0, 4 * config.tableSize);
+            cardImages = new LinkedHashMap<Integer, Image>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+                    return size() > cacheSize;
+                }
+            };
             emptyCard = loadImageResource("cards/empty_card.png");
 
             grid = new Image[config.rows][config.columns];
-            tokenText = new JLabel[config.rows][config.columns];
+            gridText = new String[config.rows][config.columns];
+            tokenText = new String[config.rows][config.columns];
             playerTokens = new boolean[config.players][config.rows][config.columns];
-            for (int row = 0; row < config.rows; row++) {
-                for (int column = 0; column < config.columns; column++) {
-                    // init the cards on the table grid as empty cards
-                    grid[row][column] = emptyCard;
-
-                    // init the JLabel selection overlay
-                    tokenText[row][column] = new JLabel("");
-                    tokenText[row][column].setVerticalAlignment(JLabel.TOP);
-                    tokenText[row][column].setHorizontalAlignment(JLabel.CENTER);
-                    tokenText[row][column].setOpaque(false);
-                    tokenText[row][column].setBorder(BorderFactory.createLineBorder(Color.black));
-                    tokenText[row][column].setBounds((column * config.cellWidth), (row * config.cellHeight), config.cellWidth, config.cellHeight);
-                    add(tokenText[row][column]);
-                }
+            // init the cards on the table grid as empty cards
+            for (Image[] row : grid)
+                Arrays.fill(row, emptyCard);
+            tokenFont = new Font("Dialog", Font.BOLD, Math.max(10, config.fontSize / 3));
+            cardTextFont = new Font("Monospaced", Font.BOLD, config.fontSize);
+        }
+
+        /**
+         * Returns the image of a card, or null if the deck variant has no image for it.
+         */
+        private Image cardImage(int card) {
+            Image image = cardImages.get(card);
+            if (image == null) {
+                URL imageResource = getClass().getClassLoader().getResource(
+                        "cards/" + intInBaseToPaddedString(card, config.featureCount, config.featureSize) + ".png");
+                if (imageResource == null) return null;
+                image = new ImageIcon(imageResource).getImage();
+                cardImages.put(card, image);
             }
+            return image;
         }
 
         private void placeCard(int slot, int card) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            grid[row][column] = deck[card];
-            validate();
-            repaint();
+            Image image = cardImage(card);
+            // cards without an image are drawn as their features over an empty card
+            grid[row][column] = image != null ? image : emptyCard;
+            gridText[row][column] = image != null ? null : intInBaseToPaddedString(card, config.featureCount, config.featureSize);
+            repaintCell(row, column);
         }
 
         private void removeCard(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             grid[row][column] = emptyCard;
-            validate();
-            repaint();
+            gridText[row][column] = null;
+            repaintCell(row, column);
         }
 
         private void placeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = true;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            tokenText[row][column] = generatePlayersTokenText(row, column);
+            repaintCell(row, column);
         }
 
         private void removeTokens() {
@@ -179,36 +221,70 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private void removeTokens(int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
-            for (int player = 0; player < playerTokens.length; player++) {
+            for (int player = 0; player < playerTokens.length; player++)
                 playerTokens[player][row][column] = false;
-                tokenText[row][column].setText(generatePlayersTokenText(row, column));
-            }
+            tokenText[row][column] = null;
+            repaintCell(row, column);
         }
 
         private void removeToken(int player, int slot) {
             int row = slot / config.columns;
             int column = slot % config.columns;
             playerTokens[player][row][column] = false;
-            tokenText[row][column].setText(generatePlayersTokenText(row, column));
+            tokenText[row][column] = generatePlayersTokenText(row, column);
+            repaintCell(row, column);
         }
 
         private String generatePlayersTokenText(int row, int column) {
-            String text = "";
+            StringBuilder text = new StringBuilder();
             for (int player = 0; player < config.players; player++) {
                 if (playerTokens[player][row][column])
-                    text = text.concat(config.playerNames[player] + ", ");
+                    text.append(text.length() == 0 ? "" : ", ").append(config.playerNames[player]);
             }
-            if (text.length() < 2)
-                return "";
-            return text.substring(0, text.length() - 2);
+            return text.length() == 0 ? null : text.toString();
+        }
+
+        /**
+         * Repaints a single cell instead of the whole table.
+         */
+        private void repaintCell(int row, int column) {
+            repaint(column * config.cellWidth, row * config.cellHeight, config.cellWidth, config.cellHeight);
         }
 
         @Override
         public void paintComponent(Graphics g) {
-            // draw card images
-            for (int row = 0; row < config.rows; row++)
-                for (int column = 0; column < config.columns; column++)
-                    g.drawImage(grid[row][column], (column * config.cellWidth), (row * config.cellHeight), this);
+            long start = System.nanoTime();
+            // draw only the cells intersecting the area being repainted
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(getSize());
+            int firstRow = Math.max(0, clip.y / config.cellHeight);
+            int lastRow = Math.min(config.rows - 1, (clip.y + clip.height) / config.cellHeight);
+            int firstColumn = Math.max(0, clip.x / config.cellWidth);
+            int lastColumn = Math.min(config.columns - 1, (clip.x + clip.width) / config.cellWidth);
+
+            for (int row = firstRow; row <= lastRow; row++)
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int x = column * config.cellWidth;
+                    int y = row * config.cellHeight;
+                    // draw card images
+                    g.drawImage(grid[row][column], x, y, this);
+                    if (gridText[row][column] != null) {
+                        g.setColor(Color.BLACK);
+                        g.setFont(cardTextFont);
+                        g.drawString(gridText[row][column], x + config.cellWidth / 8, y + config.cellHeight / 2);
+                    }
+
+                    // draw the selection overlay
+                    g.setColor(Color.BLACK);
+                    g.drawRect(x, y, config.cellWidth - 1, config.cellHeight - 1);
+                    if (tokenText[row][column] != null) {
+                        g.setFont(tokenFont);
+                        FontMetrics metrics = g.getFontMetrics();
+                        String text = tokenText[row][column];
+                        g.drawString(text, x + Math.max(0, (config.cellWidth - metrics.stringWidth(text)) / 2), y + metrics.getAscent());
+                    }
+                }
+            monitor.paint(System.nanoTime() - start);
         }
     }
 
@@ -250,6 +326,128 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         }
     }
 
+    /**
+     * The players ranked by score (ties by player id), a page of ScoreboardRows rows at a time: the first page is the
+     * top of an incrementally maintained ranking, later pages (turned with the mouse wheel) rank a snapshot of all
+     * the scores. Updates arrive on the user interface thread and are coalesced into one refresh on the event dispatch
+     * thread, which sets the text of the rows that changed only, so a point repaints the rows it moved.
+     */
+    private class RankingPanel extends JPanel {
+
+        private final Scoreboard scoreboard;
+
+        /**
+         * The remaining freeze seconds of each player (0 if not frozen).
+         */
+        private final AtomicIntegerArray freezeSeconds;
+
+        /**
+         * True iff a refresh is queued on the event dispatch thread.
+         */
+        private final AtomicBoolean refreshQueued;
+
+        /**
+         * The rows, and their displayed text (event dispatch thread only).
+         */
+        private final JLabel[] rows;
+        private final String[] texts;
+
+        /**
+         * Buffers for the players and scores of the displayed page, and for ranking all of the players.
+         */
+        private final int[] pagePlayers;
+        private final int[] pageScores;
+        private final int[] allScores;
+        private final long[] order;
+
+        /**
+         * The displayed page (event dispatch thread only).
+         */
+        private int page;
+
+        private RankingPanel() {
+            scoreboard = new Scoreboard(config.players, config.scoreboardRows);
+            freezeSeconds = new AtomicIntegerArray(config.players);
+            refreshQueued = new AtomicBoolean();
+            rows = new JLabel[scoreboard.k()];
+            texts = new String[rows.length];
+            pagePlayers = new int[rows.length];
+            pageScores = new int[rows.length];
+            allScores = new int[config.players];
+            order = new long[config.players];
+
+            setLayout(new GridLayout(rows.length, 1));
+            setPreferredSize(new Dimension(config.columns * config.cellWidth, rows.length * config.playerCellHeight));
+            Font font = new Font("Serif", Font.PLAIN, Math.min(config.fontSize, config.playerCellHeight * 3 / 4));
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new JLabel();
+                rows[i].setFont(font);
+                rows[i].setHorizontalAlignment(JLabel.CENTER);
+                add(rows[i]);
+            }
+            addMouseWheelListener(e -> {
+                int pages = (config.players + rows.length - 1) / rows.length;
+                int turned = Math.max(0, Math.min(pages - 1, page + e.getWheelRotation()));
+                if (turned == page) return;
+                page = turned;
+                refresh();
+            });
+            refresh();
+        }
+
+        private void setFreeze(int player, long millies) {
+            int seconds = millies > 0 ? (int) (millies / 1000) : 0;
+            if (freezeSeconds.getAndSet(player, seconds) != seconds) queueRefresh();
+        }
+
+        private void setScore(int player, int score) {
+            scoreboard.set(player, score);
+            queueRefresh();
+        }
+
+        private void queueRefresh() {
+            if (refreshQueued.compareAndSet(false, true)) EventQueue.invokeLater(this::refresh);
+        }
+
+        private void refresh() {
+            refreshQueued.set(false);
+            int first = page * rows.length;
+            int count = page == 0 ? scoreboard.top(pagePlayers, pageScores) : rankPage(first);
+            for (int i = 0; i < rows.length; i++) {
+                String text = "";
+                int seconds = 0;
+                if (i < count) {
+                    seconds = freezeSeconds.get(pagePlayers[i]);
+                    text = (first + i + 1) + ". " + config.playerNames[pagePlayers[i]] + ": " + pageScores[i]
+                            + (seconds > 0 ? " (" + seconds + ")" : "");
+                }
+                if (text.equals(texts[i])) continue;
+                texts[i] = text;
+                rows[i].setText(text);
+                rows[i].setForeground(seconds > 0 ? Color.RED : Color.BLACK);
+            }
+        }
+
+        /**
+         * Ranks a snapshot of all the scores into the buffers of the page starting at the given rank.
+         *
+         * @return - the number of players on the page.
+         */
+        private int rankPage(int first) {
+            scoreboard.snapshot(allScores);
+            // sort by score descending, then by player id, as (negated score, id) keys
+            for (int player = 0; player < allScores.length; player++)
+                order[player] = (long) -allScores[player] << 32 | player;
+            Arrays.sort(order);
+            int count = Math.max(0, Math.min(rows.length, order.length - first));
+            for (int i = 0; i < count; i++) {
+                pagePlayers[i] = (int) order[first + i];
+                pageScores[i] = allScores[pagePlayers[i]];
+            }
+            return count;
+        }
+    }
+
     private class WinnerPanel extends JPanel {
 
         private final JLabel winnerAnnouncement;
@@ -276,63 +474,77 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void placeCard(int card, int slot) {
+        monitor.update(GameEventBus.Type.PLACE_CARD);
         gamePanel.placeCard(slot, card);
     }
 
     @Override
     public void removeCard(int slot) {
+        monitor.update(GameEventBus.Type.REMOVE_CARD);
         gamePanel.removeCard(slot);
     }
 
     @Override
     public void placeToken(int player, int slot) {
+        monitor.update(GameEventBus.Type.PLACE_TOKEN);
         gamePanel.placeToken(player, slot);
     }
 
     @Override
     public void removeTokens() {
+        monitor.update(GameEventBus.Type.REMOVE_TOKENS);
         gamePanel.removeTokens();
     }
 
     @Override
     public void removeTokens(int slot) {
+        monitor.update(GameEventBus.Type.REMOVE_SLOT_TOKENS);
         gamePanel.removeTokens(slot);
     }
 
     @Override
     public void removeToken(int player, int slot) {
+        monitor.update(GameEventBus.Type.REMOVE_TOKEN);
         gamePanel.removeToken(player, slot);
     }
 
     @Override
     public void setCountdown(long millies, boolean warn) {
+        monitor.update(GameEventBus.Type.COUNTDOWN);
         timerPanel.setCountdown(millies, warn);
     }
 
     @Override
     public void setElapsed(long millies) {
+        monitor.update(GameEventBus.Type.ELAPSED);
         timerPanel.setElapsed(millies);
     }
 
     @Override
     public void setFreeze(int player, long millies) {
-        playersPanel.setFreeze(player, millies);
+        monitor.update(GameEventBus.Type.FREEZE);
+        if (rankingPanel != null) rankingPanel.setFreeze(player, millies);
+        else playersPanel.setFreeze(player, millies);
     }
 
     @Override
     public void setScore(int player, int score) {
-        playersPanel.setScore(player, score);
+        monitor.update(GameEventBus.Type.SCORE);
+        if (rankingPanel != null) rankingPanel.setScore(player, score);
+        else playersPanel.setScore(player, score);
     }
 
     @Override
     public void announceWinner(int[] players) {
-        playersPanel.setVisible(false);
+        monitor.update(GameEventBus.Type.WINNERS);
+        (rankingPanel != null ? rankingPanel : playersPanel).setVisible(false);
         winnerPanel.announceWinner(players);
         winnerPanel.setVisible(true);
     }
 
     @Override
     public void dispose() {
+        monitor.stop();
         super.dispose();
     }
 }
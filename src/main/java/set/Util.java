@@ -40,6 +40,42 @@ public interface Util {
      */
     List<int[]> findSets(List<Integer> deck, int count);
 
+    /**
+     * Finds and returns up to count sets in the first length cards of the given array (see findSets method).
+     * The cost depends only on the number of cards searched, not on the size of the deck.
+     *
+     * @param cards  - an array of distinct card ids (not modified).
+     * @param length - the number of cards to search, starting from index 0.
+     * @param count  - the maximum number of sets to find.
+     * @return - a list of up to count integer arrays, each one contains the card ids of a legal set.
+     */
+    List<int[]> findSets(int[] cards, int length, int count);
+
+    /**
+     * Converts a card id to a packed word holding one bit per feature value (config.featureSize bits per feature).
+     * Only supported when config.featureCount * config.featureSize <= 64.
+     *
+     * @param card - the card id.
+     * @return - the packed features of the card.
+     */
+    long packCard(int card);
+
+    /**
+     * Converts a packed word (see packCard method) back to a card id.
+     *
+     * @param packed - the packed features of a card.
+     * @return - the card id.
+     */
+    int unpackCard(long packed);
+
+    /**
+     * Finds the only card that completes the given config.featureSize - 1 cards to a legal set.
+     *
+     * @param cards - an array of config.featureSize - 1 distinct card ids.
+     * @return - the completing card id, or -1 if no card completes the given cards to a legal set.
+     */
+    int completeSet(int[] cards);
+
     /**
      * Spin a random number of times (for debugging/testing).
      */
@@ -13,8 +13,20 @@ public class UtilImpl implements Util {
 
     private final Config config;
 
+    /**
+     * True iff all the features of a card fit in a single packed word (featureCount * featureSize <= 64).
+     */
+    private final boolean packed;
+
+    /**
+     * The bits of a single feature in a packed word.
+     */
+    private final long featureMask;
+
     public UtilImpl(Config config) {
         this.config = config;
+        packed = (long) config.featureCount * config.featureSize <= Long.SIZE;
+        featureMask = config.featureSize >= Long.SIZE ? -1L : (1L << config.featureSize) - 1;
     }
 
     private void cardToFeatures(int card, int[] features) {
@@ -38,8 +50,38 @@ public class UtilImpl implements Util {
         return features;
     }
 
+    @Override
+    public long packCard(int card) {
+        long word = 0;
+        for (int i = config.featureCount - 1; i >= 0; --i) {
+            word |= 1L << (i * config.featureSize + card % config.featureSize);
+            card /= config.featureSize;
+        }
+        return word;
+    }
+
+    @Override
+    public int unpackCard(long word) {
+        int card = 0;
+        for (int i = 0; i < config.featureCount; ++i)
+            card = card * config.featureSize + Long.numberOfTrailingZeros(word >>> (i * config.featureSize));
+        return card;
+    }
+
     @Override
     public boolean testSet(int[] cards) {
+        if (!packed) return testSetFeatures(cards);
+        long union = 0;
+        for (int card : cards) union |= packCard(card);
+        for (int i = 0; i < config.featureCount; ++i) {
+            int values = Long.bitCount((union >>> (i * config.featureSize)) & featureMask);
+            // a feature must be either sameSame (one value) or butDifferent (one value per card)
+            if ((values == 1) == (values == cards.length)) return false;
+        }
+        return true;
+    }
+
+    private boolean testSetFeatures(int[] cards) {
         int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
         for (int i = 0; i < config.featureCount; ++i) {
             boolean sameSame = true, butDifferent = true;
@@ -64,18 +106,125 @@ public class UtilImpl implements Util {
         return true;
     }
 
+    @Override
+    public int completeSet(int[] cards) {
+        if (cards.length + 1 != config.featureSize || cards.length < 2) return -1;
+        if (packed) {
+            long union = 0;
+            for (int card : cards) union |= packCard(card);
+            long completion = completeUnion(union, cards.length);
+            return completion == 0 ? -1 : unpackCard(completion);
+        }
+
+        int[][] features = cardsToFeatures(cards);
+        boolean[] seen = new boolean[config.featureSize];
+        int card = 0;
+        for (int i = 0; i < config.featureCount; ++i) {
+            Arrays.fill(seen, false);
+            int distinct = 0, missing = 0;
+            for (int[] feature : features)
+                if (!seen[feature[i]]) {
+                    seen[feature[i]] = true;
+                    distinct++;
+                }
+            if (distinct == 1) missing = features[0][i];
+            else if (distinct == cards.length) while (seen[missing]) missing++;
+            else return -1;
+            card = card * config.featureSize + missing;
+        }
+        return card;
+    }
+
+    /**
+     * Completes the packed union of length = featureSize - 1 cards: every feature of the completing card is either the
+     * value shared by all cards, or the only value none of them has.
+     *
+     * @return - the packed completing card, or 0 if there is none.
+     */
+    private long completeUnion(long union, int length) {
+        long completion = 0;
+        for (int i = 0; i < config.featureCount; ++i) {
+            int shift = i * config.featureSize;
+            long values = (union >>> shift) & featureMask;
+            int distinct = Long.bitCount(values);
+            if (distinct == 1) completion |= values << shift;
+            else if (distinct == length) completion |= (~values & featureMask) << shift;
+            else return 0;
+        }
+        return completion;
+    }
+
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
+        return findSets(deck.stream().mapToInt(Integer::intValue).toArray(), deck.size(), count);
+    }
+
+    @Override
+    public List<int[]> findSets(int[] cards, int length, int count) {
+        int[] sorted = Arrays.copyOf(cards, length);
+        Arrays.sort(sorted);
+        if (!packed || config.featureSize < 3) return findSetsByCombination(sorted, count);
+
+        LinkedList<int[]> sets = new LinkedList<>();
+        int r = config.featureSize;
+        int k = r - 1;
+        if (length < r) return sets;
+
+        // membership test of the completing card: a bitset over the deck when it is not much larger than the cards
+        // searched, otherwise a binary search in the sorted cards
+        long[] members = null;
+        if (config.deckSize / Long.SIZE <= length) {
+            members = new long[(config.deckSize + Long.SIZE - 1) / Long.SIZE];
+            for (int card : sorted) members[card >>> 6] |= 1L << card;
+        }
+
+        // choose featureSize - 1 cards, the last card of the set (if any) is determined by them
+        int[] combination = new int[k];
+        long[] unions = new long[k]; // unions[i] is the packed union of the first i + 1 chosen cards
+        for (int i = 0; i < k; ++i) {
+            combination[i] = i;
+            unions[i] = (i == 0 ? 0 : unions[i - 1]) | packCard(sorted[i]);
+        }
+
+        while (true) {
+            long completion = completeUnion(unions[k - 1], k);
+            if (completion != 0) {
+                int card = unpackCard(completion);
+                // only count each set once: by its ordered first featureSize - 1 cards
+                boolean member = members != null ? (members[card >>> 6] & (1L << card)) != 0
+                        : Arrays.binarySearch(sorted, card) >= 0;
+                if (card > sorted[combination[k - 1]] && member) {
+                    int[] set = new int[r];
+                    for (int i = 0; i < k; ++i) set[i] = sorted[combination[i]];
+                    set[k] = card;
+                    sets.add(set);
+                    if (sets.size() >= count) return sets;
+                }
+            }
+
+            // generate next combination in lexicographic order
+            int t = k - 1;
+            while (t >= 0 && combination[t] == length - k + t) --t;
+            if (t < 0) return sets;
+            combination[t]++;
+            for (int i = t + 1; i < k; i++) combination[i] = combination[i - 1] + 1;
+            for (int i = t; i < k; i++) unions[i] = (i == 0 ? 0 : unions[i - 1]) | packCard(sorted[combination[i]]);
+        }
+    }
+
+    private List<int[]> findSetsByCombination(int[] deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
-        int n = deck.size();
+        int n = deck.length;
         int r = config.featureSize;
         int[] combination = new int[r];
+        if (n < r) return sets;
 
         for (int i = 0; i < r; ++i)
             combination[i] = i;
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
+        while (combination[r - 1] < n) {
+            int[] cards = new int[r];
+            for (int i = 0; i < r; ++i) cards[i] = deck[combination[i]];
             if (testSet(cards)) {
                 sets.add(cards);
                 if (sets.size() >= count) return sets;
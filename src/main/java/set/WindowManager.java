@@ -15,9 +15,8 @@ public class WindowManager implements WindowListener {
 
     @Override
     public void windowClosing(WindowEvent e) {
-        try {
-            Main.xButtonPressed();
-        } catch (InterruptedException ignored) {}
+        // Returns at once, the game stops on its own threads.
+        Main.xButtonPressed();
     }
 
     @Override
@@ -0,0 +1,260 @@
+package set.ex;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import set.Env;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * An admin and diagnostics server for running games, built on the JDK's HTTP server and bound to localhost only
+ * (AdminPort). Every registered game has plain text pages:
+ * GET  /games                  - the registered games.
+ * GET  /games/{game}/table     - the cards on the table and the players' tokens on them, and the deck size.
+ * GET  /games/{game}/players   - every player's state, set size, score and freeze deadline.
+ * GET  /games/{game}/queue     - the players whose sets wait to be checked by the dealer.
+ * GET  /games/{game}/threads   - the stack traces of the game's threads.
+ * GET  /games/{game}/metrics   - the game's counters and histograms.
+ * POST /games/{game}/pause, /resume, /reshuffle - handed to the dealer, which applies them between checks.
+ * Being bound to localhost does not keep out web pages open in a local browser, which may send requests (e.g. a form
+ * POST) to any port: requests carrying an Origin header are rejected, and the POST actions require the ACTION_HEADER
+ * header, which a page cannot add to a cross-origin request without a preflight that the server never approves.
+ * Inspecting a game never stalls its dealer: the pages are built from optimistic reads of the table (see
+ * Table.snapshotCards), volatile fields and weakly consistent iteration of the dealer's queue, so they may mix states
+ * a few moves apart. The requests are served one at a time on a single daemon thread.
+ */
+public class AdminServer {
+
+    /**
+     * The header every POST action must carry (with any value), e.g. curl -X POST -H 'X-Set-Admin: 1' ...
+     */
+    static final String ACTION_HEADER = "X-Set-Admin";
+
+    /**
+     * The live structures of a registered game.
+     */
+    private static final class Game {
+
+        private final Env env;
+        private final Dealer dealer;
+        private final Table table;
+        private final Player[] players;
+        private final Supplier<? extends Collection<Thread>> threads;
+
+        private Game(Env env, Dealer dealer, Table table, Player[] players,
+                     Supplier<? extends Collection<Thread>> threads) {
+            this.env = env;
+            this.dealer = dealer;
+            this.table = table;
+            this.players = players;
+            this.threads = threads;
+        }
+    }
+
+    private final Logger logger;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * The registered games by name.
+     */
+    private final Map<String, Game> games;
+
+    /**
+     * @param logger - where the requests that change games are logged.
+     * @param port   - the local port (0 for any free port).
+     * @throws IOException - if the port cannot be bound.
+     */
+    public AdminServer(Logger logger, int port) throws IOException {
+        this.logger = logger;
+        games = new ConcurrentSkipListMap<>();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newSingleThreadExecutor(target -> {
+            Thread thread = new Thread(target, "admin");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * @return - the bound local port.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void start() {
+        server.start();
+        logger.severe("admin server listening on http://localhost:" + port() + "/games");
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Registers a game (replacing a game registered with the same name).
+     *
+     * @param threads - supplies the game's current threads, for thread dumps.
+     */
+    public void register(String name, Env env, Dealer dealer, Table table, Player[] players,
+                         Supplier<? extends Collection<Thread>> threads) {
+        games.put(name, new Game(env, dealer, table, players, threads));
+    }
+
+    public void unregister(String name) {
+        games.remove(name);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            String method = exchange.getRequestMethod();
+            if (exchange.getRequestHeaders().containsKey("Origin")) {
+                logger.warning("admin: rejected " + method + " " + exchange.getRequestURI() + " from origin "
+                        + exchange.getRequestHeaders().getFirst("Origin"));
+                respond(exchange, 403, "requests from web pages are not accepted\n");
+                return;
+            }
+            if (path.length == 1 && (path[0].isEmpty() || path[0].equals("games"))) {
+                if (!method.equals("GET")) respond(exchange, 405, "use GET\n");
+                else respond(exchange, 200, String.join("\n", games.keySet()) + "\n");
+                return;
+            }
+            Game game = path.length == 3 && path[0].equals("games") ? games.get(path[1]) : null;
+            if (game == null) {
+                respond(exchange, 404, "no such page, see /games\n");
+                return;
+            }
+            String page = path[2];
+            boolean action = page.equals("pause") || page.equals("resume") || page.equals("reshuffle");
+            if (!method.equals(action ? "POST" : "GET")) {
+                respond(exchange, 405, "use " + (action ? "POST" : "GET") + "\n");
+                return;
+            }
+            if (action && !exchange.getRequestHeaders().containsKey(ACTION_HEADER)) {
+                respond(exchange, 403, "actions require the " + ACTION_HEADER + " header\n");
+                return;
+            }
+            switch (page) {
+                case "table": respond(exchange, 200, table(game)); break;
+                case "players": respond(exchange, 200, players(game)); break;
+                case "queue": respond(exchange, 200, queue(game)); break;
+                case "threads": respond(exchange, 200, threads(game)); break;
+                case "metrics": respond(exchange, 200, game.env.metrics.toString()); break;
+                case "pause":
+                case "resume":
+                    logger.warning("admin: " + page + " game " + path[1]);
+                    game.dealer.requestPause(page.equals("pause"));
+                    respond(exchange, 202, page + " requested\n");
+                    break;
+                case "reshuffle":
+                    logger.warning("admin: reshuffle game " + path[1]);
+                    game.dealer.requestReshuffle();
+                    respond(exchange, 202, "reshuffle requested\n");
+                    break;
+                default: respond(exchange, 404, "no such page, see /games\n");
+            }
+        } catch (RuntimeException e) {
+            logger.warning("admin request " + exchange.getRequestURI() + " failed: " + e);
+            respond(exchange, 500, e + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String table(Game game) {
+        Table table = game.table;
+        int[] cards = new int[game.env.config.tableSize];
+        table.snapshotCards(cards);
+        // the players holding a token on each slot
+        StringBuilder[] holders = new StringBuilder[cards.length];
+        int[] slots = new int[Table.SET_SIZE];
+        for (Player player : game.players) {
+            if (player == null) continue;
+            int count = table.tokenSlots(player.id, slots);
+            for (int i = 0; i < count; i++) {
+                if (holders[slots[i]] == null) holders[slots[i]] = new StringBuilder();
+                holders[slots[i]].append(' ').append(player.id + 1);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("version ").append(table.version()).append(", ").append(table.freeSlots()).append(" free slots, ")
+                .append(game.dealer.deck().size()).append(" cards in the deck")
+                .append(game.dealer.paused ? ", paused" : "").append('\n');
+        for (int slot = 0; slot < cards.length; slot++) {
+            sb.append("slot ").append(slot).append(": ");
+            if (cards[slot] == Table.NO_CARD) sb.append('-');
+            else sb.append("card ").append(cards[slot]);
+            if (holders[slot] != null) sb.append(", tokens of players").append(holders[slot]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String players(Game game) {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (Player player : game.players) {
+            if (player == null) continue;
+            sb.append("player ").append(player.id + 1).append(" (").append(game.env.config.playerNames[player.id])
+                    .append("): ").append(player.state).append(", set size ").append(player.setSize)
+                    .append(", score ").append(game.dealer.scoreboard().score(player.id));
+            long frozenUntil = player.frozenUntil;
+            if (frozenUntil > 0)
+                sb.append(", frozen until ").append(format.format(new Date(frozenUntil)))
+                        .append(" (").append(Math.max(0, frozenUntil - now)).append(" ms)");
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String queue(Game game) {
+        StringBuilder sb = new StringBuilder();
+        int[] slots = new int[Table.SET_SIZE];
+        for (Player player : game.dealer.playersSets) {
+            int count = game.table.tokenSlots(player.id, slots);
+            sb.append("player ").append(player.id + 1).append(": ").append(player.state).append(", slots");
+            for (int i = 0; i < count; i++) sb.append(' ').append(slots[i]);
+            sb.append('\n');
+        }
+        return sb.length() == 0 ? "empty\n" : sb.toString();
+    }
+
+    private static String threads(Game game) {
+        StringBuilder sb = new StringBuilder();
+        for (Thread thread : game.threads.get()) {
+            if (!thread.isAlive()) continue;
+            sb.append('"').append(thread.getName()).append("\" ").append(thread.getState()).append('\n');
+            for (StackTraceElement element : thread.getStackTrace()) sb.append("\tat ").append(element).append('\n');
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
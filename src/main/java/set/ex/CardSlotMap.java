@@ -0,0 +1,101 @@
+package set.ex;
+
+import java.util.Arrays;
+
+/**
+ * Mapping between a card and the slot it is in.
+ * Dense (an array indexed by card id) when the deck is small, otherwise an open-addressing hash table whose size
+ * depends on the table size only, so decks of millions of cards cost no more memory than the standard deck.
+ */
+public class CardSlotMap {
+
+    /**
+     * The slot of a card that is not on the table.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * Decks up to this many times larger than the table are mapped densely.
+     */
+    private static final int DENSE_RATIO = 64;
+
+    /**
+     * Slot per card (dense), or slot per hashed card (sparse).
+     */
+    private final int[] slots;
+
+    /**
+     * The card stored in each hash bucket (sparse only, NONE if the bucket is empty).
+     */
+    private final int[] keys;
+
+    private final int mask;
+
+    /**
+     * @param deckSize  - the total number of cards in the deck.
+     * @param tableSize - the maximal number of cards on the table at once.
+     */
+    public CardSlotMap(int deckSize, int tableSize) {
+        if (deckSize <= Math.max(1024, (long) DENSE_RATIO * tableSize)) {
+            slots = new int[deckSize];
+            keys = null;
+            mask = 0;
+        } else {
+            // keep the load factor under 1/4, so probe sequences stay short
+            int capacity = Integer.highestOneBit(Math.max(4, tableSize) * 4 - 1) << 1;
+            slots = new int[capacity];
+            keys = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, NONE);
+        }
+        Arrays.fill(slots, NONE);
+    }
+
+    /**
+     * @return - the slot the card is placed in, or NONE.
+     */
+    public int get(int card) {
+        if (keys == null) return slots[card];
+        for (int i = hash(card); keys[i] != NONE; i = (i + 1) & mask)
+            if (keys[i] == card) return slots[i];
+        return NONE;
+    }
+
+    public void put(int card, int slot) {
+        if (keys == null) {
+            slots[card] = slot;
+            return;
+        }
+        int i = hash(card);
+        while (keys[i] != NONE && keys[i] != card) i = (i + 1) & mask;
+        keys[i] = card;
+        slots[i] = slot;
+    }
+
+    public void remove(int card) {
+        if (keys == null) {
+            slots[card] = NONE;
+            return;
+        }
+        int i = hash(card);
+        while (keys[i] != card) {
+            if (keys[i] == NONE) return;
+            i = (i + 1) & mask;
+        }
+        // backward shift deletion: move up entries of the probe sequence so no tombstones are needed
+        for (int j = (i + 1) & mask; keys[j] != NONE; j = (j + 1) & mask) {
+            int home = hash(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        keys[i] = NONE;
+        slots[i] = NONE;
+    }
+
+    private int hash(int card) {
+        return (card * 0x9E3779B9 >>> 16) & mask;
+    }
+}
@@ -0,0 +1,205 @@
+package set.ex;
+
+import set.Config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the game state into a memory-mapped file after every change the dealer commits, so a game can be resumed
+ * after the JVM dies.
+ * The file holds a header describing the game configuration and two fixed-size records written alternately: a record
+ * is only trusted if its checksum matches, so a write torn by a crash leaves the previous record to resume from.
+ * Writing a record allocates nothing.
+ *
+ * Record layout: checksum (8) | sequence (8) | remaining millis (8) | deck count (4) | deck (4 * deckSize) |
+ * slot cards (4 * tableSize) | token slots (4 * players * SET_SIZE) | scores (4 * players).
+ * The checksum is the CRC32 of the rest of the record.
+ */
+public class Checkpoint implements Closeable {
+
+    private static final int MAGIC = 0x53455443; // "SETC"
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+
+    private static final int CHECKSUM = 0;
+    private static final int SEQUENCE = 8;
+    private static final int REMAINING = 16;
+    private static final int DECK_COUNT = 24;
+    private static final int DECK = 28;
+
+    private final Config config;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * True iff the pages should be flushed to disk after every record (survives OS crashes too, but costs a sync).
+     */
+    private final boolean sync;
+
+    private final int recordSize;
+    private final int slotsOffset;
+    private final int tokensOffset;
+    private final int scoresOffset;
+
+    /**
+     * The checksummed part of each record, and the checksum calculator (reused for every record).
+     */
+    private final ByteBuffer[] checksummed;
+    private final CRC32 crc;
+    private final int[] slots;
+
+    /**
+     * The sequence number of the latest record.
+     */
+    private long sequence;
+
+    /**
+     * Maps the checkpoint file, creating it if needed. A file written for another game configuration is overwritten by
+     * the first record.
+     *
+     * @param config - the game configuration (config.checkpointFile is the path of the file).
+     */
+    public Checkpoint(Config config) throws IOException {
+        this.config = config;
+        sync = config.checkpointSync;
+        slotsOffset = DECK + 4 * config.deckSize;
+        tokensOffset = slotsOffset + 4 * config.tableSize;
+        scoresOffset = tokensOffset + 4 * config.players * Table.SET_SIZE;
+        recordSize = scoresOffset + 4 * config.players;
+
+        channel = FileChannel.open(Paths.get(config.checkpointFile),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + 2L * recordSize);
+
+        checksummed = new ByteBuffer[2];
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(HEADER + i * recordSize + SEQUENCE).limit(HEADER + (i + 1) * recordSize);
+            checksummed[i] = record.slice();
+        }
+        crc = new CRC32();
+        slots = new int[Table.SET_SIZE];
+
+        if (!headerMatches()) {
+            clear();
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, config.featureSize).putInt(12, config.featureCount)
+                    .putInt(16, config.tableSize).putInt(20, config.players);
+        }
+    }
+
+    private boolean headerMatches() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getInt(8) == config.featureSize
+                && buffer.getInt(12) == config.featureCount && buffer.getInt(16) == config.tableSize
+                && buffer.getInt(20) == config.players;
+    }
+
+    private int record(long sequence) {
+        return HEADER + (int) (sequence & 1) * recordSize;
+    }
+
+    private boolean valid(int index) {
+        int record = HEADER + index * recordSize;
+        if (buffer.getLong(record + SEQUENCE) <= 0) return false;
+        ByteBuffer checked = checksummed[index];
+        checked.clear();
+        crc.reset();
+        crc.update(checked);
+        return crc.getValue() == buffer.getLong(record + CHECKSUM);
+    }
+
+    /**
+     * Writes the state of the game into the older record. Must be called by the dealer, the only thread changing cards.
+     * Players may keep placing tokens in regions the dealer does not hold, each player's tokens are copied as they
+     * were at some instant.
+     *
+     * @param deck            - the cards left in the deck.
+     * @param table           - the table.
+     * @param scores          - the points awarded to each player.
+     * @param remainingMillis - the milliseconds left until the deck is reshuffled.
+     */
+    public void write(Deck deck, Table table, int[] scores, long remainingMillis) {
+        long next = sequence + 1;
+        int record = record(next);
+
+        buffer.putLong(record + REMAINING, remainingMillis);
+        buffer.putInt(record + DECK_COUNT, deck.size());
+        int[] cards = deck.cards();
+        for (int i = 0; i < deck.size(); i++) buffer.putInt(record + DECK + 4 * i, cards[i]);
+        for (int slot = 0; slot < config.tableSize; slot++) {
+            buffer.putInt(record + slotsOffset + 4 * slot, table.slotToCard[slot]);
+        }
+        for (int player = 0; player < config.players; player++) {
+            int count = table.tokenSlots(player, slots);
+            for (int i = 0; i < Table.SET_SIZE; i++)
+                buffer.putInt(record + tokensOffset + 4 * (player * Table.SET_SIZE + i), i < count ? slots[i] : -1);
+        }
+        for (int player = 0; player < config.players; player++)
+            buffer.putInt(record + scoresOffset + 4 * player, scores[player]);
+
+        // the sequence and then the checksum are written last, a record torn before them is not trusted
+        buffer.putLong(record + SEQUENCE, next);
+        ByteBuffer checked = checksummed[(int) (next & 1)];
+        checked.clear();
+        crc.reset();
+        crc.update(checked);
+        buffer.putLong(record + CHECKSUM, crc.getValue());
+        if (sync) buffer.force();
+        sequence = next;
+    }
+
+    /**
+     * Reads the latest valid record.
+     *
+     * @return - the saved game state, or null if there is none.
+     */
+    public GameSnapshot load() {
+        if (!headerMatches()) return null;
+        int latest = -1;
+        for (int i = 0; i < 2; i++)
+            if (valid(i) && (latest < 0 || buffer.getLong(HEADER + i * recordSize + SEQUENCE)
+                    > buffer.getLong(HEADER + latest * recordSize + SEQUENCE)))
+                latest = i;
+        if (latest < 0) return null;
+
+        int record = HEADER + latest * recordSize;
+        sequence = buffer.getLong(record + SEQUENCE);
+        int deckCount = buffer.getInt(record + DECK_COUNT);
+        if (deckCount < 0 || deckCount > config.deckSize) return null;
+        int[] deck = new int[deckCount];
+        for (int i = 0; i < deckCount; i++) deck[i] = buffer.getInt(record + DECK + 4 * i);
+        int[] slotToCard = new int[config.tableSize];
+        for (int slot = 0; slot < config.tableSize; slot++) slotToCard[slot] = buffer.getInt(record + slotsOffset + 4 * slot);
+        int[][] tokenSlots = new int[config.players][Table.SET_SIZE];
+        for (int player = 0; player < config.players; player++)
+            for (int i = 0; i < Table.SET_SIZE; i++)
+                tokenSlots[player][i] = buffer.getInt(record + tokensOffset + 4 * (player * Table.SET_SIZE + i));
+        int[] scores = new int[config.players];
+        for (int player = 0; player < config.players; player++) scores[player] = buffer.getInt(record + scoresOffset + 4 * player);
+        return new GameSnapshot(deck, slotToCard, tokenSlots, scores, buffer.getLong(record + REMAINING));
+    }
+
+    /**
+     * Invalidates the saved game (e.g. when the game is over).
+     */
+    public void clear() {
+        for (int i = 0; i < 2; i++) {
+            buffer.putLong(HEADER + i * recordSize + SEQUENCE, 0);
+            buffer.putLong(HEADER + i * recordSize + CHECKSUM, 0);
+        }
+        if (sync) buffer.force();
+        sequence = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
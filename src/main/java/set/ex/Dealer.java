@@ -1,20 +1,30 @@
 package set.ex;
 
 import set.Env;
+import set.Histogram;
+import set.Scoreboard;
+import set.TimingWheel;
 import set.ex.Player.gameState;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class manages the dealer's threads and data
  */
 public class Dealer implements Runnable {
 
+    /**
+     * The most threads starting the player threads in parallel.
+     */
+    private static final int STARTERS = 4;
+
     /**
      * The game environment object.
      */
@@ -28,9 +38,99 @@ public class Dealer implements Runnable {
     private final Timer timer;
 
     /**
-     * The list of card ids that are left in the dealer's deck.
+     * The card ids that are left in the dealer's deck.
+     */
+    private final Deck deck;
+
+    /**
+     * The source of randomness for shuffling the deck.
+     */
+    private final Random random;
+
+    /**
+     * The points awarded to each player, as committed by the dealer.
+     */
+    private final int[] awarded;
+
+    /**
+     * The committed scores of the players and their ranking, updated by the dealer with every committed point.
+     */
+    private final Scoreboard scoreboard;
+
+    /**
+     * The number of slots left empty for extra cards when no set is left on the table (0 to reshuffle instead).
+     */
+    private final int spareSlots;
+
+    /**
+     * The cards on the table, and the cards on the table and in the deck (buffers for finding sets).
+     */
+    private final int[] tableCards;
+    private final int[] remainingCards;
+
+    /**
+     * The sets on the table, kept up to date by the dealer after every change.
+     */
+    private List<int[]> tableSets;
+
+    /**
+     * The replacement of the next legal set, prepared while the dealer is idle.
+     */
+    private final RefillPlan plan;
+
+    /**
+     * The time the dealer holds the table's write lock to commit a legal set.
+     */
+    private final Histogram commitLockNanos;
+
+    /**
+     * The number of times no set was left on the table, and the number of rounds ended early because of it.
+     */
+    private final LongAdder deadTables;
+    private final LongAdder earlyReshuffles;
+
+    /**
+     * The stamps of the table regions the dealer holds (zero for regions it does not hold).
+     */
+    private final long[] stamps;
+
+    /**
+     * Where the game is saved after every committed change (null if it is not saved).
+     */
+    private Checkpoint checkpoint;
+
+    /**
+     * Where the sets on the table are published after every change (null if they are not published).
      */
-    private final List<Integer> deck;
+    private HintService hintService;
+
+    /**
+     * Fixed layouts dealt at the start of rounds, in turn (empty if every round starts at random), and the next one.
+     */
+    private List<int[]> layouts = new ArrayList<>();
+    private int nextLayout;
+
+    /**
+     * Counts down as the player threads start: the first round starts playing once all of them did.
+     */
+    private final CountDownLatch playersReady;
+
+    /**
+     * The time from the creation of the dealer until the first round starts playing, and when it was created (0 once
+     * the first round started).
+     */
+    private final Histogram timeToFirstDeal;
+    private long createdNanos;
+
+    /**
+     * Creates the player threads (the timer runs on the shared timing wheel, without a thread of its own).
+     */
+    private ThreadFactory threadFactory = Thread::new;
+
+    /**
+     * A saved game to continue instead of dealing a new round (null if none).
+     */
+    private GameSnapshot resumed;
 
     /**
      * True iff game should be terminated.
@@ -38,6 +138,20 @@ public class Dealer implements Runnable {
     // Volatile - Main thread and Dealer thread.
     private volatile boolean terminate;
 
+    /**
+     * Requests of the admin server (see AdminServer), applied by the dealer thread between checks: pausing or resuming
+     * the game, and ending the round now to reshuffle the table.
+     */
+    // Volatile - Admin server thread and Dealer thread.
+    private volatile boolean pauseRequested;
+    private volatile boolean reshuffleRequested;
+
+    /**
+     * True iff the game is paused: the countdown is stopped, the players wait and no set is checked.
+     */
+    // Volatile - Dealer thread, players and admin server thread.
+    protected volatile boolean paused;
+
     /**
      * Notifications being passed between entities through interrupting threads.
      */
@@ -60,29 +174,138 @@ public class Dealer implements Runnable {
         this.table = table;
         this.players = players;
         timer = new Timer(this, env);
-        deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
+        deck = new Deck(env.config.deckSize);
+        random = env.config.randomSeed != 0 ? new Random(env.config.randomSeed) : new Random();
         playersSets = new ConcurrentLinkedQueue<Player>();
+        createdNanos = System.nanoTime();
+        playersReady = new CountDownLatch(players.length);
+        timeToFirstDeal = env.metrics.histogram("dealer.timeToFirstDealNanos");
+        awarded = new int[players.length];
+        scoreboard = new Scoreboard(players.length, env.config.scoreboardRows);
+        stamps = new long[table.regions()];
+        spareSlots = env.config.deadTableExtraCards ? Math.max(0, Math.min(env.config.spareSlots, env.config.tableSize - 1)) : 0;
+        tableCards = new int[env.config.tableSize];
+        remainingCards = new int[env.config.deckSize];
+        deadTables = env.metrics.counter("dealer.deadTables");
+        earlyReshuffles = env.metrics.counter("dealer.earlyReshuffles");
+        tableSets = new ArrayList<>();
+        plan = new RefillPlan(env);
+        commitLockNanos = env.metrics.histogram("dealer.commitLockNanos");
     }
 
     /**
-     * Initialize players threads and timer thread.
+     * Saves the game to a checkpoint after every committed change. Must be called before the dealer thread starts.
      */
-    private void initializeGameEntities() {        
-        // Initialize players.
-        for (int i = 0; i < players.length; i++) {
-            new Thread(players[i]).start();
-            // Wait for notification from player.
-            try {
-                synchronized(this) {wait();}
-            } catch (InterruptedException playerStarted) {}
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Publishes the sets on the table after every change. Must be called before the dealer thread starts.
+     */
+    public void setHintService(HintService hintService) {
+        this.hintService = hintService;
+    }
+
+    /**
+     * Starts rounds from fixed layouts (see TableLayouts), in turn. Must be called before the dealer thread starts.
+     */
+    public void setLayouts(List<int[]> layouts) {
+        this.layouts = layouts;
+    }
+
+    /**
+     * Creates the player threads with the given factory (e.g. to account for them when many games share a process).
+     * Must be called before the dealer thread starts.
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Continues a saved game instead of starting a new one. Must be called before the dealer thread starts.
+     */
+    public void resume(GameSnapshot snapshot) {
+        resumed = snapshot;
+    }
+
+    /**
+     * Captures the state of the game, e.g. to park it and resume it later. Must be called once the dealer and player
+     * threads ended (after terminate), when nothing changes the game any more.
+     */
+    public GameSnapshot snapshot() {
+        int[] deckCards = Arrays.copyOf(deck.cards(), deck.size());
+        int[][] tokenSlots = new int[players.length][Table.SET_SIZE];
+        for (Player player : players) {
+            Arrays.fill(tokenSlots[player.id], -1);
+            table.tokenSlots(player.id, tokenSlots[player.id]);
         }
+        return new GameSnapshot(deckCards, table.slotToCard.clone(), tokenSlots, awarded.clone(),
+                timer.remainingMillis());
+    }
+
+    /**
+     * @return - the dealer's deck, for invariant checks (see SoakTest). Only stable while holding all the regions of
+     * the table.
+     */
+    protected Deck deck() {
+        return deck;
+    }
+
+    /**
+     * @return - the points committed to a player, for invariant checks (see SoakTest).
+     */
+    protected int awarded(int player) {
+        return awarded[player];
+    }
+
+    /**
+     * @return - the scores and the ranking of the players.
+     */
+    public Scoreboard scoreboard() {
+        return scoreboard;
+    }
+
+    /**
+     * Starts the player threads from a few starter threads (starting a thread takes tens of microseconds, so starting
+     * hundreds of them one by one would take long), while the dealer deals the first table: it waits for the players
+     * only before the first round starts playing (see awaitPlayers).
+     * The timer has no thread, its deadlines run on the shared timing wheel.
+     */
+    private void initializeGameEntities() {
+        int starters = Math.min(STARTERS, Runtime.getRuntime().availableProcessors());
+        for (int starter = 0; starter < starters; starter++) {
+            int first = starter;
+            Thread thread = new Thread(() -> {
+                for (int i = first; i < players.length && !terminate; i += starters)
+                    threadFactory.newThread(players[i]).start();
+            }, "starter-" + starter);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Called by every player thread once it started.
+     */
+    protected void playerStarted() {
+        playersReady.countDown();
+    }
 
-        // Initialize timer.
-        new Thread(timer).start();
-        // Wait for notification from timer.
-        try {
-            synchronized(this) {wait();}
-        } catch (InterruptedException timerStarted) {}
+    /**
+     * Waits until every player thread started (before the first round starts playing), and records the time to the
+     * first deal.
+     */
+    private void awaitPlayers() {
+        if (createdNanos == 0) return;
+        while (!terminate) {
+            try {
+                playersReady.await();
+                break;
+            } catch (InterruptedException notReady) {}
+        }
+        timeToFirstDeal.record(System.nanoTime() - createdNanos);
+        createdNanos = 0;
     }
 
     /**
@@ -98,6 +321,7 @@ public class Dealer implements Runnable {
         // If game finished properly and not due to an external event.
         if (!terminate) {
             terminate();
+            if (checkpoint != null) checkpoint.clear();
             announceWinners();
         } 
     }
@@ -106,18 +330,21 @@ public class Dealer implements Runnable {
      * Main loop of the game, handled by the dealer.
      */
     private void letsPlay() {
+        if (resumed != null) resumeRound();
         while (!shouldFinish()) {
             // Round finished.
             notifyAllPlayers(gameState.WAITING);
-            table.rwLock.writeLock().lock();
+            table.writeLockAll(stamps);
             playersSets.clear();
-            removeAllCardsFromTable();
 
             // Prepare new round.
-            Collections.shuffle(deck);
-            placeCardsOnTable();
-            table.rwLock.writeLock().unlock();
+            boolean playable = dealTable();
+            table.unlockWrite(stamps);
+            if (!playable) continue; // No set is left in the game.
+            saveCheckpoint(env.config.turnTimeoutMillis);
+            publishHints();
             roundFinished = false;
+            awaitPlayers();
             startTimer();
             notifyAllPlayers(gameState.PLAYING);
 
@@ -125,6 +352,40 @@ public class Dealer implements Runnable {
         }
     }
 
+    /**
+     * Restores the saved game and plays the rest of its round.
+     */
+    private void resumeRound() {
+        GameSnapshot snapshot = resumed;
+        resumed = null;
+        table.writeLockAll(stamps);
+        deck.clear();
+        for (int card : snapshot.deck) deck.add(card);
+        for (int slot = 0; slot < snapshot.slotToCard.length; slot++)
+            if (snapshot.slotToCard[slot] != Table.NO_CARD) table.placeCard(snapshot.slotToCard[slot], slot, false);
+        for (Player player : players) {
+            awarded[player.id] = snapshot.scores[player.id];
+            player.score = snapshot.scores[player.id];
+            scoreboard.set(player.id, player.score);
+            env.ui.setScore(player.id, player.score);
+            // A full set was waiting to be checked when the game was saved, its player starts over.
+            int[] slots = snapshot.tokenSlots[player.id];
+            if (slots[Table.SET_SIZE - 1] >= 0) continue;
+            for (int slot : slots)
+                if (slot >= 0 && table.slotToCard[slot] != Table.NO_CARD) table.placeToken(player.id, slot);
+        }
+        table.unlockWrite(stamps);
+        tableDead(); // Index the sets on the restored table.
+        publishHints();
+
+        roundFinished = false;
+        timer.roundMillis = snapshot.remainingMillis;
+        awaitPlayers();
+        startTimer();
+        notifyAllPlayers(gameState.PLAYING);
+        dealerLoop();
+    }
+
     /**
      * Main loop of the dealer during the game.
      * Dealer being awaken by:
@@ -134,133 +395,322 @@ public class Dealer implements Runnable {
      */
     private void dealerLoop() {
         while (!(roundFinished || terminate)) {
-            checkSets();
+            applyRequests();
+            if (!paused) {
+                checkSets();
+                // Use the idle time to prepare the replacement of the next legal set.
+                if (!plan.ready() && playersSets.isEmpty() && !terminate) preparePlan();
+            }
             try {
                 synchronized (this) {wait();}
             } catch (InterruptedException dealerAwaken) {}
         }
     }
 
+    /**
+     * Applies the requests of the admin server. A paused game keeps its table, the sets submitted meanwhile are
+     * submitted again once it resumes.
+     */
+    private void applyRequests() {
+        boolean reshuffle = reshuffleRequested;
+        if (reshuffle) {
+            reshuffleRequested = false;
+            // the next round starts playing
+            pauseRequested = false;
+        }
+        if (pauseRequested != paused) {
+            paused = pauseRequested;
+            if (paused) {
+                timer.pause();
+                notifyAllPlayers(gameState.WAITING);
+            } else {
+                timer.resume();
+                notifyAllPlayers(gameState.PLAYING);
+            }
+            env.logger.warning("game " + (paused ? "paused" : "resumed"));
+        }
+        if (reshuffle) {
+            env.logger.warning("reshuffling the table on request");
+            timer.expire();
+        }
+    }
+
+    /**
+     * Pauses or resumes the game (called by the admin server).
+     */
+    public void requestPause(boolean pause) {
+        pauseRequested = pause;
+        Thread thread = dealerThread;
+        if (thread != null) thread.interrupt();
+    }
+
+    /**
+     * Ends the current round now, so the table is reshuffled (called by the admin server).
+     */
+    public void requestReshuffle() {
+        reshuffleRequested = true;
+        Thread thread = dealerThread;
+        if (thread != null) thread.interrupt();
+    }
+
     /**
      * Iterate through all sets waiting to be checked.
      */
     private void checkSets() {
         while(!playersSets.isEmpty() && !terminate) {
             Player player = playersSets.poll();
+            // A stale submission (e.g. queued right after the round was reset): the player is playing again, and may
+            // be changing its tokens.
+            if (player.state != gameState.WAITING) continue;
             int[][] slotsAndCards = constructSet(player);
+            if (slotsAndCards == null) {
+                // The player's set was broken up by the round reset, it goes back to playing.
+                player.state = gameState.PLAYING;
+                notifyPlayer(player);
+                continue;
+            }
             int[] slots = slotsAndCards[0];
             int[] cards = slotsAndCards[1];
             boolean valid = env.util.testSet(cards);
+            if (valid) {
+                if (!plan.ready()) preparePlan();
+                // UX: the set stays on the table for the delay of its cards, without holding the lock.
+                pause(env.config.tableDelayMillis * (Table.SET_SIZE + plan.count()));
+            }
 
             // Wrap if-else statement in a lock because shared data is being manipulated in both cases.
-            table.rwLock.writeLock().lock();
+            // Only the regions holding the set are locked, players elsewhere on the table keep playing.
+            long lockStart = System.nanoTime();
+            table.writeLock(slots, stamps);
             if (valid) {
                 player.state = gameState.POINT;
+                awarded[player.id]++;
+                scoreboard.increment(player.id);
                 handleLegalSet(slots);
             } else {
                 player.state = gameState.PENALTY;
                 for (int slot : slots) {table.removeToken(player.id, slot);} // Remove player's tokens.
             }
-            table.rwLock.writeLock().unlock();
+            table.unlockWrite(stamps);
+            if (valid) commitLockNanos.record(System.nanoTime() - lockStart);
             notifyPlayer(player);
+
+            if (valid && !terminate) {
+                tableSets = plan.apply(tableSets, cards);
+                plan.invalidate();
+                saveCheckpoint(timer.remainingMillis());
+                publishHints();
+                // No set may be left on the table, players should not wait for the timeout.
+                if (tableSets.isEmpty() && !handleDeadTable()) return;
+            }
+        }
+    }
+
+    /**
+     * Deals extra cards (if configured) when no set is left on the table, otherwise ends the round now: the table is
+     * reshuffled, or the game ends if no set is left in the deck either.
+     *
+     * @return - true iff the table holds a set again.
+     */
+    private boolean handleDeadTable() {
+        deadTables.increment();
+        table.writeLockAll(stamps);
+        boolean playable = dealExtraCards();
+        table.unlockWrite(stamps);
+        if (playable) {
+            saveCheckpoint(timer.remainingMillis());
+            publishHints();
+        } else {
+            earlyReshuffles.increment();
+            timer.expire();
         }
+        return playable;
+    }
+
+    /**
+     * Returns all cards to the deck and deals a new table, reshuffling until the table holds a set. A dead layout
+     * (e.g. a set-free stress test layout) is played instead, until the dead table policy ends it: extra cards, or the
+     * turn timeout. Without a turn timeout it is reshuffled like any other dead table.
+     * Must be called while holding all regions of the table.
+     *
+     * @return - false iff no set is left in the game.
+     */
+    private boolean dealTable() {
+        boolean first = true;
+        while (!terminate) {
+            removeAllCardsFromTable();
+            deck.shuffle(random);
+            // only the first deal of a round follows a layout
+            boolean layout = first && !layouts.isEmpty();
+            if (layout) placeLayout(layouts.get(nextLayout++ % layouts.size()));
+            first = false;
+            placeCardsOnTable();
+            if (!tableDead() || dealExtraCards()) return true;
+            deadTables.increment();
+            if (!setsLeft()) return false;
+            if (layout && env.config.turnTimeoutMillis > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deals extra cards into the spare slots, a set at a time, until the table holds a set.
+     * Must be called while holding all regions of the table.
+     *
+     * @return - true iff the table holds a set.
+     */
+    private boolean dealExtraCards() {
+        while (table.freeSlots() > 0 && !deck.isEmpty() && spareSlots > 0 && !terminate) {
+            for (int i = 0; i < Table.SET_SIZE && table.freeSlots() > 0 && !deck.isEmpty(); i++)
+                table.placeCard(deck.draw(), table.randomFreeSlot(random));
+            if (!tableDead()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies the cards on the table into tableCards. Only the dealer changes cards, so it reads them without locking.
+     *
+     * @return - the number of cards on the table.
+     */
+    private int collectTableCards() {
+        int count = 0;
+        for (int slot = 0; slot < tableCards.length; slot++)
+            if (table.slotToCard[slot] != Table.NO_CARD) tableCards[count++] = table.slotToCard[slot];
+        return count;
+    }
+
+    /**
+     * Indexes the sets on the table (after dealing cards), invalidating the refill plan.
+     *
+     * @return - true iff the cards on the table hold no set.
+     */
+    private boolean tableDead() {
+        int count = collectTableCards();
+        tableSets = env.util.findSets(tableCards, count, Integer.MAX_VALUE);
+        plan.invalidate();
+        return tableSets.isEmpty();
+    }
+
+    /**
+     * Plans the replacement of the next legal set: the cards to draw, and the sets they will form on the table.
+     */
+    private void preparePlan() {
+        int count = collectTableCards();
+        // The emptied slots are refilled as long as the table has more than spareSlots empty slots.
+        int refills = Math.max(0, Math.min(Table.SET_SIZE, table.freeSlots() + Table.SET_SIZE - spareSlots));
+        plan.prepare(deck, tableCards, count, refills);
+    }
+
+    /**
+     * Hands the indexed sets over to the hint service, which resolves and publishes them on its own thread.
+     */
+    private void publishHints() {
+        if (hintService != null && !terminate) hintService.publish(table.version(), tableSets);
+    }
+
+    /**
+     * Pauses for the UX delays, woken up by the shared timing wheel. Players notifying the dealer of new sets meanwhile
+     * are handled after the pause, terminating the game ends it.
+     */
+    private void pause(long millis) {
+        TimingWheel.shared().pause(millis, () -> terminate);
+    }
+
+    /**
+     * @return - true iff the cards on the table and in the deck together hold a set.
+     */
+    private boolean setsLeft() {
+        int count = collectTableCards();
+        System.arraycopy(deck.cards(), 0, remainingCards, 0, deck.size());
+        System.arraycopy(tableCards, 0, remainingCards, deck.size(), count);
+        return !env.util.findSets(remainingCards, deck.size() + count, 1).isEmpty();
     }
 
     /**
      * Remove cards and tokens from corresponding slots, awake players which their tokens have been removed.
+     * The emptied slots are refilled with the planned cards: they are the only slots in the locked regions that may be
+     * changed (other slots can only be empty when the deck is, or when they are spare slots). Extra cards dealt on a
+     * dead table are not replaced, so the table shrinks back to its usual size.
+     * Must be called with a ready plan, the UX delays were paused before taking the lock.
      */
     private void handleLegalSet(int[] set) {
         for (int slot : set) {
-            for (Player player : players) {
-                if (table.tokens[player.id][slot] == true) {
-                    table.removeToken(player.id, slot);
-                    playersSets.remove(player);
-                    if (player.state == gameState.WAITING) {
-                        player.state = gameState.PLAYING;
-                        notifyPlayer(players[player.id]);
-                    }
+            table.removeTokens(slot, id -> {
+                Player player = players[id];
+                playersSets.remove(player);
+                if (player.state == gameState.WAITING) {
+                    player.state = gameState.PLAYING;
+                    notifyPlayer(player);
                 }
-            }
-            table.removeCard(slot);
+            });
+            table.removeCard(slot, false);
         }
-        placeCardsOnTable();
+        for (int i = 0; i < plan.count(); i++) table.placeCard(deck.draw(), set[i], false);
     }
 
     /**
-     * Returns player's set to be checked by dealer.
+     * Returns player's set to be checked by dealer (null if the player no longer holds a full set).
      */
     private int[][] constructSet(Player player) {
-            int[][] slotsAndCards = new int[2][3];
-            int count = 0;
+            int[][] slotsAndCards = new int[2][Table.SET_SIZE];
             // Dealer reads here from shared data (table). No need to lock because Dealer is the only writer.
-            for (int slot = 0; slot < env.config.tableSize && count < 3; slot++) {
-                if (table.tokens[player.id][slot] == true) {
-                    slotsAndCards[0][count] = slot;
-                    slotsAndCards[1][count] = table.slotToCard[slot];
-                    count++;
-                }
-            }
+            int count = table.tokenSlots(player.id, slotsAndCards[0]);
+            if (count < Table.SET_SIZE) return null;
+            for (int i = 0; i < count; i++)
+                slotsAndCards[1][i] = table.slotToCard[slotsAndCards[0][i]];
             return slotsAndCards;
     }
 
     /**
-     * Check if any cards can be removed from the deck and placed on the table.
+     * Check if any cards can be removed from the deck and placed on the table (leaving the spare slots empty).
      */
     private void placeCardsOnTable() {
-        List<Integer> randomSlot = shuffleSlots();
-        for (int i = 0; i < env.config.tableSize && !terminate && !deck.isEmpty(); i++) {
-            Integer slot = randomSlot.remove(0);
-            if (table.slotToCard[slot] == null) {
-                table.placeCard(deck.remove(0), slot);
-            }
+        while (table.freeSlots() > spareSlots && !terminate && !deck.isEmpty()) {
+            table.placeCard(deck.draw(), table.randomFreeSlot(random));
         }
-        if (env.config.hints == true && !terminate) table.hints();
+    }
+
+    /**
+     * Places the cards of a layout that are still in the deck in slots 0, 1, 2, ... in order.
+     */
+    private void placeLayout(int[] layout) {
+        for (int slot = 0; slot < layout.length && !terminate; slot++)
+            if (deck.remove(layout[slot])) table.placeCard(layout[slot], slot);
     }
 
     /**
      * Returns all the cards from the table to the deck.
      */
     private void removeAllCardsFromTable() {
-        List<Integer> randomSlots = shuffleSlots();
-        for (Integer slot : randomSlots) {
-            Integer card = table.slotToCard[slot];
-            if (card != null) {
-                // Remove all tokens from card.
-                for (Player player : players) {
-                    if (table.tokens[player.id][slot] == true)
-                        table.removeToken(player.id, slot);
-                }
-                table.removeCard(slot);
-                deck.add(card);
+        int[] randomSlots = table.occupiedSlots();
+        for (int i = randomSlots.length - 1; i >= 0; i--) {
+            int j = random.nextInt(i + 1);
+            int slot = randomSlots[j];
+            randomSlots[j] = randomSlots[i];
+
+            // Remove all tokens from card.
+            table.removeTokens(slot, id -> {});
+            deck.add(table.slotToCard[slot]);
+            table.removeCard(slot);
 
-                if (terminate) break;
-            } 
+            if (terminate) break;
         }
     }
 
     /**
-     * Find winners and display them.
+     * Saves the game, must be called by the dealer after committing a change. The dealer is the only thread changing
+     * cards and scores, so the table is not locked.
+     */
+    private void saveCheckpoint(long remainingMillis) {
+        if (checkpoint != null && !terminate) checkpoint.write(deck, table, awarded, remainingMillis);
+    }
+
+    /**
+     * Find winners and display them, from a consistent snapshot of the scores.
      */
     private void announceWinners() {
-        int noOfWinners = 0;
-        int maxScore = 0;
-        for (Player player : players) {
-            int playerScore = player.score;
-            if (maxScore == playerScore)
-                noOfWinners++;
-            if (maxScore < playerScore) {
-                maxScore = playerScore;
-                noOfWinners = 1;
-            }
-        }
-        int[] winners = new int[noOfWinners];
-        for (Player player : players) {
-            if (player.score == maxScore) {
-                winners[noOfWinners - 1] = player.id;
-                noOfWinners--;
-            }
-        }
-        env.ui.announceWinner(winners);
+        env.ui.announceWinner(scoreboard.leaders());
     }
 
     /**
@@ -269,16 +719,18 @@ public class Dealer implements Runnable {
     private void notifyAllPlayers(gameState state) {
         for (Player player : players) {
             player.state = state;
-            player.keyInput = null;
+            // Presses made before the new state are stale.
+            player.pressEpoch = System.nanoTime();
             notifyPlayer(player);
         }
     }
 
     /**
-     * Check if the game should be terminated or the game end conditions are met.
+     * Check if the game should be terminated or the game end conditions are met (no set left on the table and in the
+     * deck together).
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || !setsLeft();
     }
 
     /**
@@ -286,33 +738,29 @@ public class Dealer implements Runnable {
      * Terminates all threads.
      */
     public void terminate() {
+        // Flag the dealer first: it stops starting players, and threads that did not start yet see the flags.
+        terminate = true;
+        table.terminate = true;
         // Terminate players.
         for (Player player : players) {
             player.terminate = true;
-            player.playerThread.interrupt();
+            Thread thread = player.playerThread;
+            if (thread != null) thread.interrupt();
         }
         // Terminate timer.
-        timer.terminate = true;
-        timer.timerThread.interrupt();
+        timer.terminate();
         // Terminate dealer.
-        terminate = true;
-        dealerThread.interrupt();
-    }
-
-    private List<Integer> shuffleSlots() {
-        List<Integer> output = new LinkedList<Integer>();
-        for (int i = 0; i < env.config.tableSize; i++) {
-            output.add(i);
-        }
-        Collections.shuffle(output);
-        return output;
+        Thread thread = dealerThread;
+        if (thread != null) thread.interrupt();
     }
 
     private void startTimer() {
-        timer.timerThread.interrupt();
+        timer.start();
     }
 
     private void notifyPlayer(Player player) {
-        player.playerThread.interrupt();
+        // A player may not have started when the game was terminated during its start.
+        Thread thread = player.playerThread;
+        if (thread != null) thread.interrupt();
     }
 }
\ No newline at end of file
@@ -0,0 +1,87 @@
+package set.ex;
+
+import java.util.Random;
+
+/**
+ * The cards left in the dealer's deck, stored as a flat array of card ids.
+ * Cards are drawn from the end of the array, so drawing and returning cards take constant time at any deck size.
+ */
+public class Deck {
+
+    /**
+     * The card ids, only the first size entries are in the deck.
+     */
+    private final int[] cards;
+
+    private int size;
+
+    /**
+     * Creates a full deck.
+     *
+     * @param deckSize - the number of cards in the deck.
+     */
+    public Deck(int deckSize) {
+        cards = new int[deckSize];
+        for (int i = 0; i < deckSize; i++) cards[i] = i;
+        size = deckSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all cards from the deck.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Removes and returns the top card of the deck.
+     */
+    public int draw() {
+        return cards[--size];
+    }
+
+    /**
+     * Returns a card to the top of the deck.
+     */
+    public void add(int card) {
+        cards[size++] = card;
+    }
+
+    /**
+     * Removes a given card from the deck (taking time linear in the deck size).
+     *
+     * @return - true iff the card was in the deck.
+     */
+    public boolean remove(int card) {
+        for (int i = 0; i < size; i++)
+            if (cards[i] == card) {
+                cards[i] = cards[--size];
+                return true;
+            }
+        return false;
+    }
+
+    public void shuffle(Random random) {
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int card = cards[i];
+            cards[i] = cards[j];
+            cards[j] = card;
+        }
+    }
+
+    /**
+     * The backing array of the deck, only the first size() entries are valid.
+     */
+    public int[] cards() {
+        return cards;
+    }
+}
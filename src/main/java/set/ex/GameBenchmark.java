@@ -0,0 +1,258 @@
+package set.ex;
+
+import set.Config;
+import set.Env;
+import set.Histogram;
+import set.Metrics;
+import set.UserInterfaceMulticast;
+import set.UtilImpl;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Plays complete headless games of computer players across a matrix of configurations, measuring the coordination
+ * costs between the dealer, player and timing wheel threads that microbenchmarks miss. Every cell of the matrix plays
+ * the same seeded games (seeds seed, seed + 1, ...), and the results are written as tab separated values, one row per
+ * cell, so that the results of two builds can be diffed.
+ * A key=value argument with a comma separated list of values is a dimension of the matrix (e.g. ComputerPlayers=2,4),
+ * other key=value arguments override config.properties. Without dimensions, DEFAULT_MATRIX is used.
+ * Usage: GameBenchmark [results file] [games per cell] [seconds per game] [key=value ...]
+ */
+public class GameBenchmark {
+
+    /**
+     * The matrix when no dimension is given: player counts, table sizes, penalty freezes and bot strategies.
+     */
+    private static final String[] DEFAULT_MATRIX = {"ComputerPlayers=2,4,8", "Columns=4,5",
+            "PenaltyFreezeSeconds=0,0.1", "BotStrategy=Random,Sets"};
+
+    /**
+     * The scheduler's counts of the calling thread's context switches (Linux only).
+     */
+    private static final Path THREAD_STATUS = Paths.get("/proc/thread-self/status");
+
+    /**
+     * The results of a cell of the matrix, accumulated over its games.
+     */
+    private static final class Cell {
+
+        private final Map<String, String> parameters;
+
+        /**
+         * The metrics shared by the games of the cell.
+         */
+        private final Metrics metrics = new Metrics();
+
+        /**
+         * Accounted for by every game thread when it ends.
+         */
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder contextSwitches = new LongAdder();
+
+        private int games;
+        private int completed;
+        private long nanos;
+
+        Cell(Map<String, String> parameters) {
+            this.parameters = parameters;
+        }
+    }
+
+    private final Logger logger;
+    private final ThreadMXBean threadBean;
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final boolean contextSwitchesSupported;
+
+    public GameBenchmark(Logger logger) {
+        this.logger = logger;
+        threadBean = ManagementFactory.getThreadMXBean();
+        allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        contextSwitchesSupported = contextSwitches() >= 0;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger logger = Logger.getLogger("GameBenchmark");
+        Properties properties = Config.loadProperties("config.properties", logger);
+        List<String> positional = new ArrayList<>();
+        Map<String, String[]> dimensions = new LinkedHashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) positional.add(arg);
+            else if (arg.indexOf(',', eq) > 0) dimensions.put(arg.substring(0, eq), arg.substring(eq + 1).split(","));
+            else properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        if (dimensions.isEmpty())
+            for (String arg : DEFAULT_MATRIX) {
+                int eq = arg.indexOf('=');
+                dimensions.put(arg.substring(0, eq), arg.substring(eq + 1).split(","));
+            }
+        Path results = Paths.get(positional.size() > 0 ? positional.get(0) : "benchmark-results.tsv");
+        int games = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 2;
+        long seconds = positional.size() > 2 ? Long.parseLong(positional.get(2)) : 5;
+        long seed = Long.parseLong(properties.getProperty("RandomSeed", "0"));
+        if (seed == 0) seed = 1;
+        // benchmarked games only have bots, and must not log every move
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("RemotePlayers", "0");
+        properties.setProperty("ServerPort", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("CheckpointFile", "");
+        properties.setProperty("LogLevel", properties.getProperty("BenchmarkLogLevel", "WARNING"));
+
+        GameBenchmark benchmark = new GameBenchmark(logger);
+        List<Cell> cells = new ArrayList<>();
+        expand(new ArrayList<>(dimensions.entrySet()), 0, new LinkedHashMap<>(), cells);
+        System.out.printf("%d cells x %d games, up to %d s per game, seeds from %d%n", cells.size(), games, seconds, seed);
+
+        // warm up on a game of the first cell, not recorded
+        benchmark.play(new Cell(cells.get(0).parameters), properties, seed, seconds);
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(Locale.ROOT, "# GameBenchmark: %d games per cell, up to %d s per game, seeds from %d,"
+                        + " java %s, %d cores", games, seconds, seed, System.getProperty("java.version"),
+                Runtime.getRuntime().availableProcessors()));
+        lines.add(header(dimensions.keySet()));
+        for (Cell cell : cells) {
+            for (int game = 0; game < games; game++) benchmark.play(cell, properties, seed + game, seconds);
+            String row = benchmark.row(cell);
+            lines.add(row);
+            System.out.println(row);
+        }
+        Files.write(results, lines);
+        System.out.println("results written to " + results);
+    }
+
+    /**
+     * Creates a cell for every combination of the values of the dimensions, in order.
+     */
+    private static void expand(List<Map.Entry<String, String[]>> dimensions, int index, Map<String, String> parameters,
+                               List<Cell> cells) {
+        if (index == dimensions.size()) {
+            cells.add(new Cell(new LinkedHashMap<>(parameters)));
+            return;
+        }
+        Map.Entry<String, String[]> dimension = dimensions.get(index);
+        for (String value : dimension.getValue()) {
+            parameters.put(dimension.getKey(), value.trim());
+            expand(dimensions, index + 1, parameters, cells);
+        }
+    }
+
+    /**
+     * Plays a complete game, terminating it if it is not over within the time limit.
+     */
+    private void play(Cell cell, Properties base, long seed, long seconds) throws InterruptedException {
+        Properties properties = new Properties();
+        properties.putAll(base);
+        properties.putAll(cell.parameters);
+        properties.setProperty("RandomSeed", Long.toString(seed));
+        Config config = new Config(logger, properties);
+        Env env = new Env(logger, config, new UserInterfaceMulticast(), new UtilImpl(config), cell.metrics);
+        Player[] players = new Player[config.players];
+        Table table = new Table(env, players);
+        Dealer dealer = new Dealer(env, table, players);
+        for (int i = 0; i < players.length; i++) players[i] = new Player_Bot(env, dealer, table, i);
+
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        ThreadFactory factory = target -> {
+            Thread thread = new Thread(() -> {
+                try {
+                    target.run();
+                } finally {
+                    account(cell);
+                }
+            }, "benchmark-" + threads.size());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        };
+        dealer.setThreadFactory(factory);
+        Thread dealerThread = factory.newThread(dealer);
+
+        long start = System.nanoTime();
+        dealerThread.start();
+        dealerThread.join(TimeUnit.SECONDS.toMillis(seconds));
+        boolean completed = !dealerThread.isAlive();
+        if (!completed) dealer.terminate();
+        for (Thread thread : threads) thread.join();
+        cell.nanos += System.nanoTime() - start;
+        cell.games++;
+        if (completed) cell.completed++;
+    }
+
+    /**
+     * Adds the resources used by the calling game thread, which is about to end, to its cell.
+     */
+    private void account(Cell cell) {
+        cell.cpuNanos.add(Math.max(0, threadBean.getCurrentThreadCpuTime()));
+        if (allocationBean != null)
+            cell.allocatedBytes.add(Math.max(0, allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId())));
+        if (contextSwitchesSupported) cell.contextSwitches.add(Math.max(0, contextSwitches()));
+    }
+
+    /**
+     * @return - the number of context switches of the calling thread so far, or -1 if unknown.
+     */
+    private static long contextSwitches() {
+        try {
+            long switches = 0;
+            for (String line : Files.readAllLines(THREAD_STATUS))
+                if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:"))
+                    switches += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+            return switches;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static String header(Iterable<String> dimensions) {
+        StringBuilder sb = new StringBuilder();
+        for (String dimension : dimensions) sb.append(dimension).append('\t');
+        return sb.append("games\tcompleted\tseconds\tsets_verified\tsets_per_second\tlegal_sets")
+                .append("\tverdict_p50_us\tverdict_p99_us\tverdict_p999_us\tlock_p50_ns\tlock_p99_ns\tlock_max_ns")
+                .append("\tcontext_switches_per_set\tcpu_us_per_set\tallocated_bytes_per_set").toString();
+    }
+
+    /**
+     * @return - the results of a cell, as a tab separated row (values per set are "-" if no set was verified).
+     */
+    private String row(Cell cell) {
+        Histogram verdict = cell.metrics.histogram("player.submitToVerdictNanos");
+        Histogram lock = cell.metrics.histogram("dealer.commitLockNanos");
+        long sets = verdict.count();
+        double seconds = cell.nanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+        for (String value : cell.parameters.values()) sb.append(value).append('\t');
+        sb.append(String.format(Locale.ROOT, "%d\t%d\t%.3f\t%d\t%.1f\t%d\t%.1f\t%.1f\t%.1f\t%d\t%d\t%d", cell.games,
+                cell.completed, seconds, sets, sets / seconds, lock.count(), verdict.percentile(50) / 1e3,
+                verdict.percentile(99) / 1e3, verdict.percentile(99.9) / 1e3, lock.percentile(50),
+                lock.percentile(99), lock.max()));
+        sb.append('\t').append(perSet(contextSwitchesSupported ? cell.contextSwitches.sum() : -1, sets, 1));
+        sb.append('\t').append(perSet(cell.cpuNanos.sum(), sets, 1e3));
+        sb.append('\t').append(perSet(allocationBean != null ? cell.allocatedBytes.sum() : -1, sets, 1));
+        return sb.toString();
+    }
+
+    private static String perSet(long total, long sets, double unit) {
+        return total < 0 || sets == 0 ? "-" : String.format(Locale.ROOT, "%.1f", total / unit / sets);
+    }
+}
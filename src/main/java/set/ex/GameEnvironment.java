@@ -0,0 +1,362 @@
+package set.ex;
+
+import set.Config;
+import set.Env;
+import set.UtilImpl;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * A synchronous, single-threaded version of the game for training bots: the caller advances the game one step at a
+ * time with the key presses of all players, and reads the outcome from observation buffers. The cards are kept on a
+ * Table and sets are checked with Util, as in live play, but there are no threads, sleeps or user interface, and a
+ * step allocates nothing.
+ * Time is counted in steps of stepMillis: freezes and the turn timeout of the configuration are converted to steps.
+ * As in live play, a player who submits an illegal set keeps the tokens and must remove one of them. When no set is
+ * left on the table, the table is reshuffled into the deck; the game is over when no set is left in the game.
+ */
+public class GameEnvironment {
+
+    /**
+     * An action for a player who does not press any key in a step.
+     */
+    public static final int NO_ACTION = -1;
+
+    /**
+     * Chooses the actions of all players from the observations of an environment.
+     */
+    public interface Policy {
+
+        /**
+         * @param env     - the environment, to read the observations from.
+         * @param actions - where to write the slot each player presses, or NO_ACTION.
+         */
+        void act(GameEnvironment env, int[] actions);
+    }
+
+    /**
+     * Players pressing random slots, like the bots of live play.
+     */
+    public static final Policy RANDOM = (env, actions) -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int player = 0; player < actions.length; player++) actions[player] = random.nextInt(env.cards.length);
+    };
+
+    private final Env env;
+    private final Config config;
+    private final Table table;
+    private final Deck deck;
+    private final Random random;
+
+    /**
+     * The freezes and the time between reshuffles, in steps (0 if none).
+     */
+    private final int penaltySteps;
+    private final int pointSteps;
+    private final int turnSteps;
+
+    /**
+     * Observations - the card in each slot (Table.NO_CARD if none).
+     */
+    public final int[] cards;
+
+    /**
+     * Observations - 1 where a player has a token on a slot, indexed by player * tableSize + slot.
+     */
+    public final byte[] tokens;
+
+    /**
+     * Observations - the score of each player, the reward of each player in the last step (1 for a legal set, -1 for an
+     * illegal one, 0 otherwise), and the number of steps each player is still frozen for.
+     */
+    public final int[] scores;
+    public final int[] rewards;
+    public final int[] frozen;
+
+    /**
+     * The slots holding each player's tokens (the first tokenCount[p] entries).
+     */
+    private final int[][] tokenSlots;
+    private final int[] tokenCount;
+
+    /**
+     * Buffers for the cards of a submitted set, the cards completed to a set, and the cards left in the game.
+     */
+    private final int[] setCards;
+    private final int[] partial;
+    private final int[] remaining;
+    private final boolean[] present;
+
+    private long steps;
+    private int turnStep;
+    private boolean over;
+
+    /**
+     * @param config     - the game configuration.
+     * @param stepMillis - the game time a step stands for.
+     */
+    public GameEnvironment(Config config, long stepMillis) {
+        this.config = config;
+        // no user interface: the table is changed through its silent paths only (setCard and clearCard)
+        env = new Env(Logger.getLogger("GameEnvironment"), config, null, new UtilImpl(config));
+        table = new Table(env, new Player[config.players]);
+        deck = new Deck(config.deckSize);
+        random = new Random();
+        penaltySteps = (int) (config.penaltyFreezeMillis / stepMillis);
+        pointSteps = (int) (config.pointFreezeMillis / stepMillis);
+        turnSteps = config.turnTimeoutMillis > 0 ? (int) Math.max(1, config.turnTimeoutMillis / stepMillis) : 0;
+
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, Table.NO_CARD);
+        tokens = new byte[config.players * config.tableSize];
+        scores = new int[config.players];
+        rewards = new int[config.players];
+        frozen = new int[config.players];
+        tokenSlots = new int[config.players][Table.SET_SIZE];
+        tokenCount = new int[config.players];
+        setCards = new int[Table.SET_SIZE];
+        partial = new int[config.featureSize - 1];
+        remaining = new int[config.deckSize];
+        present = new boolean[config.deckSize];
+    }
+
+    public Config config() {
+        return config;
+    }
+
+    /**
+     * @return - the number of steps since the last reset.
+     */
+    public long steps() {
+        return steps;
+    }
+
+    /**
+     * @return - true iff no set is left in the game.
+     */
+    public boolean over() {
+        return over;
+    }
+
+    /**
+     * @return - the number of steps left until the table is reshuffled (0 if it is never reshuffled).
+     */
+    public int stepsLeftInTurn() {
+        return turnSteps == 0 ? 0 : turnSteps - turnStep;
+    }
+
+    /**
+     * Starts a new game, dealt from a deck shuffled by the given seed.
+     */
+    public void reset(long seed) {
+        random.setSeed(seed);
+        for (int slot = 0; slot < config.tableSize; slot++)
+            if (cards[slot] != Table.NO_CARD) removeCard(slot);
+        deck.clear();
+        for (int card = 0; card < config.deckSize; card++) deck.add(card);
+        Arrays.fill(tokens, (byte) 0);
+        Arrays.fill(tokenCount, 0);
+        Arrays.fill(scores, 0);
+        Arrays.fill(rewards, 0);
+        Arrays.fill(frozen, 0);
+        steps = 0;
+        over = false;
+        reshuffle();
+    }
+
+    /**
+     * Advances the game by one step. Players press their keys in turn, starting from a different player every step.
+     *
+     * @param actions - the slot each player presses (toggling a token on it), or NO_ACTION.
+     * @return - true iff the game is over.
+     */
+    public boolean step(int[] actions) {
+        if (over) return true;
+        Arrays.fill(rewards, 0);
+        for (int i = 0; i < config.players; i++) {
+            int player = (int) ((steps + i) % config.players);
+            if (frozen[player] > 0) {
+                frozen[player]--;
+                continue;
+            }
+            int slot = actions[player];
+            if (slot < 0 || slot >= config.tableSize || cards[slot] == Table.NO_CARD) continue;
+            boolean placed = toggleToken(player, slot);
+            if (placed && tokenCount[player] == Table.SET_SIZE) checkSet(player);
+            if (over) break;
+        }
+        steps++;
+        if (!over && turnSteps > 0 && ++turnStep >= turnSteps) reshuffle();
+        return over;
+    }
+
+    /**
+     * @return - true iff a token was placed.
+     */
+    private boolean toggleToken(int player, int slot) {
+        int index = player * config.tableSize + slot;
+        if (tokens[index] != 0) removeToken(player, slot);
+        // a player holding an illegal set must remove a token first
+        else if (tokenCount[player] < Table.SET_SIZE) {
+            tokens[index] = 1;
+            tokenSlots[player][tokenCount[player]++] = slot;
+            return true;
+        }
+        return false;
+    }
+
+    private void removeToken(int player, int slot) {
+        tokens[player * config.tableSize + slot] = 0;
+        int[] slots = tokenSlots[player];
+        int last = --tokenCount[player];
+        for (int i = 0; i <= last; i++)
+            if (slots[i] == slot) {
+                slots[i] = slots[last];
+                break;
+            }
+    }
+
+    private void checkSet(int player) {
+        for (int i = 0; i < Table.SET_SIZE; i++) setCards[i] = cards[tokenSlots[player][i]];
+        if (!env.util.testSet(setCards)) {
+            rewards[player] = -1;
+            frozen[player] = penaltySteps;
+            return;
+        }
+        rewards[player] = 1;
+        scores[player]++;
+        frozen[player] = pointSteps;
+
+        // replace the set, like the dealer does
+        for (int i = 0; i < Table.SET_SIZE; i++) {
+            int slot = table.cardToSlot.get(setCards[i]);
+            for (int other = 0; other < config.players; other++)
+                if (tokens[other * config.tableSize + slot] != 0) removeToken(other, slot);
+            removeCard(slot);
+            if (!deck.isEmpty()) placeCard(deck.draw(), slot);
+        }
+        if (!tableHasSet()) reshuffle();
+    }
+
+    /**
+     * Returns the table to the deck and deals a new one, until the table holds a set or no set is left in the game.
+     */
+    private void reshuffle() {
+        turnStep = 0;
+        do {
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                if (cards[slot] == Table.NO_CARD) continue;
+                for (int player = 0; player < config.players; player++)
+                    if (tokens[player * config.tableSize + slot] != 0) removeToken(player, slot);
+                deck.add(cards[slot]);
+                removeCard(slot);
+            }
+            if (!setsLeft()) {
+                over = true;
+                return;
+            }
+            deck.shuffle(random);
+            while (table.freeSlots() > 0 && !deck.isEmpty()) placeCard(deck.draw(), table.randomFreeSlot(random));
+        } while (!tableHasSet());
+    }
+
+    private void placeCard(int card, int slot) {
+        table.setCard(card, slot);
+        cards[slot] = card;
+    }
+
+    private void removeCard(int slot) {
+        table.clearCard(slot);
+        cards[slot] = Table.NO_CARD;
+    }
+
+    private boolean tableHasSet() {
+        int count = 0;
+        for (int card : cards) if (card != Table.NO_CARD) remaining[count++] = card;
+        return hasSet(count);
+    }
+
+    /**
+     * @return - true iff the cards on the table and in the deck hold a set.
+     */
+    private boolean setsLeft() {
+        int count = 0;
+        for (int card : cards) if (card != Table.NO_CARD) remaining[count++] = card;
+        for (int i = 0; i < deck.size(); i++) remaining[count++] = deck.cards()[i];
+        return hasSet(count);
+    }
+
+    /**
+     * @return - true iff the first count cards of the remaining buffer hold a set.
+     */
+    private boolean hasSet(int count) {
+        for (int i = 0; i < count; i++) present[remaining[i]] = true;
+        boolean found = completes(count, 0, 0);
+        for (int i = 0; i < count; i++) present[remaining[i]] = false;
+        return found;
+    }
+
+    private boolean completes(int count, int from, int chosen) {
+        if (chosen == partial.length) {
+            int completion = env.util.completeSet(partial);
+            return completion >= 0 && present[completion];
+        }
+        for (int i = from; i <= count - (partial.length - chosen); i++) {
+            partial[chosen] = remaining[i];
+            if (completes(count, i + 1, chosen + 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Plays a batch of environments in parallel, one per worker of the common fork-join pool, starting a new game
+     * whenever one is over.
+     *
+     * @param envs   - the environments.
+     * @param policy - chooses the actions of every step (called concurrently for different environments).
+     * @param steps  - the number of steps to play in each environment.
+     * @param seed   - the seed of the first game of the first environment (games are seeded consecutively).
+     * @return - the number of games that were over.
+     */
+    public static long run(GameEnvironment[] envs, Policy policy, long steps, long seed) {
+        AtomicLong games = new AtomicLong();
+        IntStream.range(0, envs.length).parallel().forEach(i -> {
+            GameEnvironment env = envs[i];
+            int[] actions = new int[env.config.players];
+            long next = seed + i * (1L << 32);
+            env.reset(next++);
+            for (long step = 0; step < steps; step++) {
+                policy.act(env, actions);
+                if (env.step(actions)) {
+                    games.incrementAndGet();
+                    env.reset(next++);
+                }
+            }
+        });
+        return games.get();
+    }
+
+    /**
+     * Measures the step throughput with players pressing random slots.
+     * Usage: GameEnvironment [steps per environment] [environments]
+     */
+    public static void main(String[] args) {
+        long steps = args.length > 0 ? Long.parseLong(args[0]) : 5_000_000;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Config config = new Config(Logger.getLogger("GameEnvironment"), new Properties());
+        GameEnvironment[] envs = new GameEnvironment[count];
+        for (int i = 0; i < count; i++) envs[i] = new GameEnvironment(config, 10);
+        run(envs, RANDOM, steps / 10, 0); // warm up
+        long start = System.nanoTime();
+        long games = run(envs, RANDOM, steps, 1);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d environments x %,d steps: %.2f s, %,.0f steps/s, %d games over%n", count, steps,
+                seconds, count * steps / seconds, games);
+    }
+}
@@ -0,0 +1,40 @@
+package set.ex;
+
+/**
+ * The state of a game between two dealer actions: enough to continue the game from where it stopped.
+ */
+public class GameSnapshot {
+
+    /**
+     * The cards left in the deck, bottom to top.
+     */
+    public final int[] deck;
+
+    /**
+     * The card in each slot (Table.NO_CARD if none).
+     */
+    public final int[] slotToCard;
+
+    /**
+     * The slots holding each player's tokens (-1 padded to Table.SET_SIZE entries).
+     */
+    public final int[][] tokenSlots;
+
+    /**
+     * The points each player was awarded.
+     */
+    public final int[] scores;
+
+    /**
+     * The number of milliseconds left until the dealer reshuffles the deck.
+     */
+    public final long remainingMillis;
+
+    public GameSnapshot(int[] deck, int[] slotToCard, int[][] tokenSlots, int[] scores, long remainingMillis) {
+        this.deck = deck;
+        this.slotToCard = slotToCard;
+        this.tokenSlots = tokenSlots;
+        this.scores = scores;
+        this.remainingMillis = remainingMillis;
+    }
+}
@@ -0,0 +1,193 @@
+package set.ex;
+
+import set.Env;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the legal sets on the table (hints) to subscribers, such as the console, without blocking gameplay.
+ * The dealer hands over the sets it indexed after each change to the table, together with the table version. The
+ * hints are resolved to slots and published on the service thread, and cached until the table changes again: asking
+ * for the hints of a version that was already published costs nothing. When the table changes faster than the
+ * subscribers consume hints, only the latest version is published.
+ */
+public class HintService implements Runnable {
+
+    /**
+     * The legal sets on the table at some table version.
+     */
+    public static class Hints {
+
+        /**
+         * The version of the table (see Table.version).
+         */
+        public final long version;
+
+        /**
+         * The cards of each legal set, and the slots holding them (in ascending order).
+         */
+        public final int[][] cards;
+        public final int[][] slots;
+
+        private Hints(long version, int[][] cards, int[][] slots) {
+            this.version = version;
+            this.cards = cards;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Game entities.
+     */
+    private final Table table;
+
+    /**
+     * Called on the service thread with every published version.
+     */
+    private final List<Consumer<Hints>> subscribers;
+
+    /**
+     * The sets handed over by the dealer and not published yet (null if none), and their table version.
+     */
+    // Guarded by this - Dealer thread and service thread.
+    private List<int[]> pendingSets;
+    private long pendingVersion;
+
+    /**
+     * The latest published hints (null before the first).
+     */
+    // Volatile - service thread and any thread asking for hints.
+    private volatile Hints latest;
+
+    /**
+     * A buffer for the cards on the table (service thread only).
+     */
+    private final int[] cards;
+
+    /**
+     * True iff the service should stop.
+     */
+    private volatile boolean terminate;
+
+    public HintService(Env env, Table table) {
+        this.env = env;
+        this.table = table;
+        subscribers = new CopyOnWriteArrayList<>();
+        cards = new int[env.config.tableSize];
+    }
+
+    /**
+     * Registers a callback to run (on the service thread) with the hints of every published table version.
+     */
+    public void subscribe(Consumer<Hints> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<Hints> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Hands over the sets on the table after a change. Called by the dealer after releasing the table.
+     *
+     * @param version - the table version the sets were found at.
+     * @param sets    - the cards of each legal set on the table (not modified afterwards).
+     */
+    public synchronized void publish(long version, List<int[]> sets) {
+        pendingVersion = version;
+        pendingSets = sets;
+        notifyAll();
+    }
+
+    /**
+     * @return - the latest published hints, or null if none were published yet.
+     */
+    public Hints latest() {
+        return latest;
+    }
+
+    /**
+     * @return - the hints of the given table version, or null if they were not published (yet).
+     */
+    public Hints hints(long version) {
+        Hints hints = latest;
+        return hints != null && hints.version == version ? hints : null;
+    }
+
+    @Override
+    public void run() {
+        while (!terminate) {
+            List<int[]> sets;
+            long version;
+            synchronized (this) {
+                while (pendingSets == null && !terminate) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {}
+                }
+                sets = pendingSets;
+                version = pendingVersion;
+                pendingSets = null;
+            }
+            if (terminate) break;
+            Hints hints = resolve(version, sets);
+            // The table changed again, the dealer is about to hand over the sets of the new version.
+            if (hints == null) continue;
+            latest = hints;
+            for (Consumer<Hints> subscriber : subscribers) subscriber.accept(hints);
+        }
+    }
+
+    /**
+     * Finds the slots of the sets at the given table version.
+     *
+     * @return - the hints, or null if the table is no longer at that version.
+     */
+    private Hints resolve(long version, List<int[]> sets) {
+        if (table.version() != version) return null;
+        table.snapshotCards(cards);
+        if (table.version() != version) return null;
+
+        Map<Integer, Integer> slotOfCard = new HashMap<>();
+        for (int slot = 0; slot < cards.length; slot++)
+            if (cards[slot] != Table.NO_CARD) slotOfCard.put(cards[slot], slot);
+        int[][] setCards = new int[sets.size()][];
+        int[][] setSlots = new int[sets.size()][];
+        for (int i = 0; i < setCards.length; i++) {
+            setCards[i] = sets.get(i).clone();
+            setSlots[i] = new int[setCards[i].length];
+            for (int j = 0; j < setCards[i].length; j++) setSlots[i][j] = slotOfCard.getOrDefault(setCards[i][j], -1);
+            Arrays.sort(setSlots[i]);
+        }
+        return new Hints(version, setCards, setSlots);
+    }
+
+    /**
+     * Prints hints to the console.
+     */
+    public void print(Hints hints) {
+        for (int i = 0; i < hints.cards.length; i++) {
+            int[][] features = env.util.cardsToFeatures(hints.cards[i]);
+            System.out.println("Hint: Set found: slots: " + Arrays.toString(hints.slots[i]) + " features: "
+                    + Arrays.deepToString(features));
+        }
+    }
+
+    /**
+     * Stops the service thread.
+     */
+    public synchronized void terminate() {
+        terminate = true;
+        notifyAll();
+    }
+}
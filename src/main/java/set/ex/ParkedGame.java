@@ -0,0 +1,129 @@
+package set.ex;
+
+import set.Config;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The state of an idle game packed into a single byte array, to keep many games in memory without their live
+ * structures (Dealer, Table, players and their threads). A parked game is inflated back with Dealer.resume.
+ *
+ * Layout: version (1) | remaining millis (4) | deck count (c) | deck (w * deck count) | occupied slots bitmap
+ * (tableSize / 8) | the card in each occupied slot (w each) | each player's token slots bitmap (tableSize / 8 each) |
+ * scores (4 * players).
+ * Card ids take w = 1 to 4 bytes, as many as the largest card id of the deck needs, and the deck count c as many as the
+ * deck size needs. A standard game (81 cards, 4 players) takes 44 bytes and a byte per card in the deck, at most 113.
+ */
+public class ParkedGame {
+
+    private static final byte VERSION = 2;
+
+    private final byte[] bytes;
+
+    private ParkedGame(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return - the packed state (not copied).
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * Packs a game.
+     *
+     * @param snapshot - the state of the game.
+     * @param config   - the game configuration.
+     */
+    public static ParkedGame pack(GameSnapshot snapshot, Config config) {
+        int cardBytes = bytes(config.deckSize - 1);
+        int countBytes = bytes(config.deckSize);
+        int bitmapBytes = bitmapBytes(config);
+        int occupied = 0;
+        for (int card : snapshot.slotToCard) if (card != Table.NO_CARD) occupied++;
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + countBytes + cardBytes * (snapshot.deck.length + occupied)
+                + bitmapBytes * (1 + config.players) + 4 * config.players);
+
+        buffer.put(VERSION);
+        buffer.putInt((int) Math.min(Integer.MAX_VALUE, Math.max(0, snapshot.remainingMillis)));
+        put(buffer, snapshot.deck.length, countBytes);
+        for (int card : snapshot.deck) put(buffer, card, cardBytes);
+
+        byte[] bitmap = new byte[bitmapBytes];
+        for (int slot = 0; slot < config.tableSize; slot++)
+            if (snapshot.slotToCard[slot] != Table.NO_CARD) bitmap[slot >>> 3] |= 1 << (slot & 7);
+        buffer.put(bitmap);
+        for (int card : snapshot.slotToCard) if (card != Table.NO_CARD) put(buffer, card, cardBytes);
+
+        for (int player = 0; player < config.players; player++) {
+            Arrays.fill(bitmap, (byte) 0);
+            for (int slot : snapshot.tokenSlots[player]) if (slot >= 0) bitmap[slot >>> 3] |= 1 << (slot & 7);
+            buffer.put(bitmap);
+        }
+        for (int player = 0; player < config.players; player++) buffer.putInt(snapshot.scores[player]);
+        return new ParkedGame(buffer.array());
+    }
+
+    /**
+     * Unpacks the game, e.g. to resume it.
+     *
+     * @param config - the configuration the game was packed with.
+     */
+    public GameSnapshot unpack(Config config) {
+        int cardBytes = bytes(config.deckSize - 1);
+        int countBytes = bytes(config.deckSize);
+        int bitmapBytes = bitmapBytes(config);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.get() != VERSION) throw new IllegalStateException("unknown parked game version");
+
+        long remainingMillis = buffer.getInt();
+        int[] deck = new int[get(buffer, countBytes)];
+        for (int i = 0; i < deck.length; i++) deck[i] = get(buffer, cardBytes);
+
+        byte[] bitmap = new byte[bitmapBytes];
+        buffer.get(bitmap);
+        int[] slotToCard = new int[config.tableSize];
+        for (int slot = 0; slot < config.tableSize; slot++)
+            slotToCard[slot] = isSet(bitmap, slot) ? get(buffer, cardBytes) : Table.NO_CARD;
+
+        int[][] tokenSlots = new int[config.players][Table.SET_SIZE];
+        for (int player = 0; player < config.players; player++) {
+            buffer.get(bitmap);
+            Arrays.fill(tokenSlots[player], -1);
+            int count = 0;
+            for (int slot = 0; slot < config.tableSize && count < Table.SET_SIZE; slot++)
+                if (isSet(bitmap, slot)) tokenSlots[player][count++] = slot;
+        }
+        int[] scores = new int[config.players];
+        for (int player = 0; player < config.players; player++) scores[player] = buffer.getInt();
+        return new GameSnapshot(deck, slotToCard, tokenSlots, scores, remainingMillis);
+    }
+
+    /**
+     * @return - the number of bytes holding the values 0 to max.
+     */
+    private static int bytes(int max) {
+        return max < 1 << 8 ? 1 : max < 1 << 16 ? 2 : max < 1 << 24 ? 3 : 4;
+    }
+
+    private static int bitmapBytes(Config config) {
+        return (config.tableSize + 7) / 8;
+    }
+
+    private static void put(ByteBuffer buffer, int value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) buffer.put((byte) (value >>> shift));
+    }
+
+    private static int get(ByteBuffer buffer, int bytes) {
+        int value = 0;
+        for (int i = 0; i < bytes; i++) value = value << 8 | buffer.get() & 0xFF;
+        return value;
+    }
+
+    private static boolean isSet(byte[] bitmap, int slot) {
+        return (bitmap[slot >>> 3] & (1 << (slot & 7))) != 0;
+    }
+}
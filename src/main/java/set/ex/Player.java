@@ -1,6 +1,11 @@
 package set.ex;
 
 import set.Env;
+import set.Histogram;
+import set.TimingWheel;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class manages the players' threads and data
@@ -61,10 +66,39 @@ public abstract class Player implements Runnable {
     protected volatile Thread playerThread;
 
     /**
-     * Next play.
+     * True while the player is frozen after submitting a set.
      */
-    // Volatile - InputManager thread, Dealer thread and Player thread.
-    protected volatile Integer keyInput;
+    // Volatile - Player thread and timing wheel thread.
+    private volatile boolean frozen;
+
+    /**
+     * The time (System.currentTimeMillis()) the player's freeze ends, 0 if it is not frozen.
+     */
+    // Volatile - Player thread and admin server thread.
+    protected volatile long frozenUntil;
+
+    /**
+     * Key presses waiting to be played, in the order they happened.
+     */
+    protected final PressQueue presses;
+
+    /**
+     * Presses that happened before this time (System.nanoTime()) are stale and are discarded, e.g. presses made during
+     * a freeze or in a previous round.
+     */
+    // Volatile - Dealer thread and Player thread.
+    protected volatile long pressEpoch;
+
+    /**
+     * The time from a key press until its token is placed or removed, and the number of discarded key presses.
+     */
+    private final Histogram keyToToken;
+    private final LongAdder droppedPresses;
+
+    /**
+     * The time from submitting a set to the dealer until the dealer's point or penalty.
+     */
+    private final Histogram submitToVerdict;
 
     /**
      * Player constructor.
@@ -80,6 +114,10 @@ public abstract class Player implements Runnable {
         this.table = table;
         this.id = id;
         state = gameState.WAITING;
+        presses = new PressQueue(env.config.keyQueueDepth);
+        keyToToken = env.metrics.histogram("input.keyToTokenNanos");
+        droppedPresses = env.metrics.counter("input.droppedPresses");
+        submitToVerdict = env.metrics.histogram("player.submitToVerdictNanos");
     }
 
     /**
@@ -94,36 +132,94 @@ public abstract class Player implements Runnable {
     public abstract void keyPressed(int slot);
 
     /**
-     * Execute given key input.
+     * This method is called by InputManager when a key is pressed.
+     *
+     * @param slot       - the slot pressed.
+     * @param pressNanos - the System.nanoTime() at which the key was pressed.
      */
-    protected void executePress() {
-        table.rwLock.readLock().lock();
-            // Ignore if no card present on chosen slot.
-            if (table.slotToCard[keyInput] != null) {
-                if (table.tokens[id][keyInput] == false) {
-                    table.placeToken(id, keyInput);
-                } else if (table.tokens[id][keyInput] == true) {
-                    table.removeToken(id, keyInput);
-                }
+    public void keyPressed(int slot, long pressNanos) {
+        keyPressed(slot);
+    }
+
+    /**
+     * Queues a key press to be played by the player thread (called by the single input thread of the player).
+     */
+    protected void queuePress(int slot, long pressNanos) {
+        if (!presses.offer(slot, pressNanos)) {
+            droppedPresses.increment();
+            return;
+        }
+        // A player that is not playing drains its presses once it is back to playing.
+        Thread thread = playerThread;
+        if (state == gameState.PLAYING && thread != null) thread.interrupt();
+    }
+
+    /**
+     * Play the queued key presses in order, as long as the player is playing.
+     */
+    protected void drainPresses() {
+        int slot;
+        while (!terminate && state == gameState.PLAYING && (slot = presses.poll()) >= 0) {
+            long pressNanos = presses.polledNanos();
+            if (pressNanos < pressEpoch || setSize >= Table.SET_SIZE) {
+                droppedPresses.increment();
+                continue;
             }
-        table.rwLock.readLock().unlock();
+            env.logger.fine("player " + (id + 1) + " plays slot " + slot);
+            toggleToken(slot);
+            keyToToken.record(System.nanoTime() - pressNanos);
+            if (setSize == Table.SET_SIZE) {
+                checkMySet();
+            }
+        }
+    }
 
-        if (setSize == 3) {
+    /**
+     * Execute given key input.
+     */
+    protected void executePress(int slot) {
+        toggleToken(slot);
+        if (setSize == Table.SET_SIZE) {
             checkMySet();
         }
     }
 
+    /**
+     * Place a token on the given slot, or remove it if already placed.
+     */
+    private void toggleToken(int slot) {
+        StampedLock lock = table.lockOf(slot);
+        long stamp = lock.readLock();
+            // Ignore if no card present on chosen slot.
+            if (table.slotToCard[slot] != Table.NO_CARD) {
+                if (table.tokens[id][slot] == false) {
+                    if (setSize < Table.SET_SIZE) table.placeToken(id, slot);
+                } else if (table.tokens[id][slot] == true) {
+                    table.removeToken(id, slot);
+                }
+            }
+        lock.unlockRead(stamp);
+    }
+
     /**
      * Player gives dealer their set to check if legal.
      */
     protected void checkMySet() {
-        state = gameState.WAITING;
-        dealer.playersSets.add(this);
-        notifyDealer();
-        // Wait for dealer to check for legal set.
-        try {
-            synchronized(this) {wait();}
-        } catch (InterruptedException setBeenChecked) {}
+        long submitted;
+        do {
+            submitted = System.nanoTime();
+            state = gameState.WAITING;
+            dealer.playersSets.add(this);
+            notifyDealer();
+            // Wait for dealer to check for legal set.
+            while (state == gameState.WAITING && !terminate) {
+                try {
+                    synchronized(this) {wait();}
+                } catch (InterruptedException setBeenChecked) {}
+            }
+            // A new round started right after the set was submitted, and the dealer skips it: submit it again.
+        } while (state == gameState.PLAYING && setSize == Table.SET_SIZE && !terminate);
+        if (state == gameState.POINT || state == gameState.PENALTY) submitToVerdict.record(System.nanoTime() - submitted);
         if (state == gameState.POINT) {point();}
         else if (state == gameState.PENALTY) {penalty();}
         // else cards have been used by some other player - continue.
@@ -133,7 +229,9 @@ public abstract class Player implements Runnable {
      * Award a point to a player and perform other related actions.
      */
     public void point() {
-        env.ui.setScore(id, ++score);
+        // the dealer committed the point to the scoreboard
+        score = dealer.scoreboard().score(id);
+        env.ui.setScore(id, score);
         freeze(env.config.pointFreezeMillis);
     }
 
@@ -146,30 +244,49 @@ public abstract class Player implements Runnable {
 
     /**
      * Cooldown after submitting set to dealer.
+     * The freeze display ticks and the end of the freeze run on the shared timing wheel, the player thread waits
+     * without a timeout until the wheel wakes it up.
      */
     protected void freeze(long freezeTime) {
         long finishTime = System.currentTimeMillis() + freezeTime;
-        while (finishTime > System.currentTimeMillis() & !terminate) {
-            env.ui.setFreeze(id, finishTime - System.currentTimeMillis() + 900); // + 900 for playability: displays integer part of freezeTime
+        frozenUntil = finishTime;
+        frozen = true;
+        freezeTick(finishTime);
+        while (frozen & !terminate) {
             try {
-                if (finishTime - System.currentTimeMillis() > 1000) {
-                    Thread.sleep(1000);
-                }
-                else {
-                    Thread.sleep(Long.max(finishTime - System.currentTimeMillis(), 0));
-                }
-            } catch (Exception ignored) {}
+                synchronized (this) {wait();}
+            } catch (InterruptedException ignored) {}
         }
+        frozenUntil = 0;
         if (terminate) return;
         env.ui.setFreeze(id, 0);
+        // Presses made while frozen are not played.
+        pressEpoch = System.nanoTime();
 
-        if (!dealer.roundFinished) {
+        if (!dealer.roundFinished && !dealer.paused) {
             state = gameState.PLAYING;
         } else {
             state = gameState.WAITING;
         }
     }
 
+    /**
+     * Updates the freeze display every second, and ends the freeze at its finish time. Runs on the timing wheel thread
+     * (the first tick on the player thread).
+     */
+    private void freezeTick(long finishTime) {
+        if (terminate) return;
+        long timeLeft = finishTime - System.currentTimeMillis();
+        if (timeLeft > 0) {
+            env.ui.setFreeze(id, timeLeft + 900); // + 900 for playability: displays integer part of freezeTime
+            TimingWheel.shared().schedule(Long.min(timeLeft, 1000), () -> freezeTick(finishTime));
+            return;
+        }
+        frozen = false;
+        Thread thread = playerThread;
+        if (thread != null) thread.interrupt();
+    }
+
     protected void notifyDealer() {
         dealer.dealerThread.interrupt();
     }
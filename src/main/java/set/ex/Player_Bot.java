@@ -2,31 +2,74 @@ package set.ex;
 
 import set.Env;
 
+import java.util.List;
+import java.util.Random;
+
 public class Player_Bot extends Player {
 
+    /**
+     * The source of the bot's choices (seeded per player when the game is seeded).
+     */
+    private final Random random;
+
+    /**
+     * The cards seen on the table, and the cards of the occupied slots (buffers for finding sets).
+     */
+    private final int[] seen;
+    private final int[] cards;
+
     public Player_Bot(Env env, Dealer dealer, Table table, int id) {
         super(env, dealer, table, id);
+        random = env.config.randomSeed != 0 ? new Random(env.config.randomSeed * 31 + id + 1) : new Random();
+        seen = new int[env.config.tableSize];
+        cards = new int[env.config.tableSize];
     }
 
-    @Override 
+    @Override
     public void run() {
         playerThread = Thread.currentThread();
-        notifyDealer();
+        dealer.playerStarted();
 
         while (!terminate) {
             if (state == gameState.WAITING) {
                 try {
                     synchronized(this) {wait();}
                 } catch (InterruptedException start) {}
-            } else {
-                keyInput = (int)(Math.random() * env.config.tableSize);
-                executePress();
+            } else if (!env.config.botFindsSets || !playSet()) {
+                int slot = random.nextInt(env.config.tableSize);
+                // Choose slots holding a card, looking at the table without locking it.
+                if (table.hasCard(slot)) executePress(slot);
             }
         }
     }
 
+    /**
+     * Takes a set found on a snapshot of the table: removes the bot's tokens from other slots, then places its tokens
+     * on the set. The table may change meanwhile, in which case the bot is penalized like a human would be.
+     *
+     * @return - false iff no set was found on the table.
+     */
+    private boolean playSet() {
+        table.snapshotCards(seen);
+        int count = 0;
+        for (int card : seen) if (card != Table.NO_CARD) cards[count++] = card;
+        List<int[]> sets = env.util.findSets(cards, count, 1);
+        if (sets.isEmpty()) return false;
+        int[] set = sets.get(0);
+        for (int slot = 0; slot < seen.length && state == gameState.PLAYING; slot++)
+            if (table.tokens[id][slot] && !contains(set, seen[slot])) executePress(slot);
+        for (int slot = 0; slot < seen.length && state == gameState.PLAYING; slot++)
+            if (!table.tokens[id][slot] && contains(set, seen[slot])) executePress(slot);
+        return true;
+    }
+
+    private static boolean contains(int[] set, int card) {
+        for (int member : set) if (member == card) return true;
+        return false;
+    }
+
     @Override
     public void keyPressed(int slot) {
         System.out.println("Unsupported method 'keyPressed' for Bot Player.");
     }
-}
\ No newline at end of file
+}
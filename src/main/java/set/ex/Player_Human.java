@@ -11,27 +11,24 @@ public class Player_Human extends Player {
     @Override
     public void run() {
         playerThread = Thread.currentThread();
-        notifyDealer();
+        dealer.playerStarted();
 
         while (!terminate) {
+            drainPresses();
             // Wait for input
             try {
                 synchronized(this) {wait();}
-            } catch (InterruptedException keyPressed) {
-                // Human player gets interruptions from both InputManager and Dealer, need to distinguish between the two.
-                if (keyInput != null)
-                    executePress();
-            }
+            } catch (InterruptedException keyPressed) {}
         }
     }
 
     @Override
     public void keyPressed(int slot) {
-    // Ignore if player waits for set to be checked.
-        if (state == gameState.PLAYING && setSize < 3) {
-            keyInput = slot;
-            // Human thread waiting for input from keyboard
-            playerThread.interrupt();
-        }
+        keyPressed(slot, System.nanoTime());
+    }
+
+    @Override
+    public void keyPressed(int slot, long pressNanos) {
+        if (slot >= 0 && slot < env.config.tableSize) queuePress(slot, pressNanos);
     }
 }
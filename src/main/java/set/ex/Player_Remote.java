@@ -0,0 +1,14 @@
+package set.ex;
+
+import set.Env;
+
+/**
+ * A player whose key presses are received from a network client of the game server. It plays like a human player,
+ * only its presses come from the network instead of the keyboard.
+ */
+public class Player_Remote extends Player_Human {
+
+    public Player_Remote(Env env, Dealer dealer, Table table, int id) {
+        super(env, dealer, table, id);
+    }
+}
@@ -0,0 +1,94 @@
+package set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue of key presses, each stamped with the time it happened.
+ * Single producer (the thread receiving the input, e.g. the EDT) and single consumer (the player thread) only.
+ */
+public class PressQueue {
+
+    private final int[] slots;
+    private final long[] times;
+    private final int mask;
+
+    /**
+     * The maximal number of presses waiting in the queue, later presses are rejected.
+     */
+    private final int depth;
+
+    /**
+     * The index of the next press to read (written by the consumer) and to write (written by the producer).
+     */
+    private final AtomicLong head;
+    private final AtomicLong tail;
+
+    /**
+     * The producer's last seen head and the consumer's last seen tail, saving reads of the other thread's counter.
+     */
+    private long headCache;
+    private long tailCache;
+
+    /**
+     * The time of the last press returned by poll (consumer only).
+     */
+    private long polledNanos;
+
+    /**
+     * @param depth - the maximal number of presses waiting in the queue.
+     */
+    public PressQueue(int depth) {
+        this.depth = Math.max(1, depth);
+        int capacity = Integer.highestOneBit(this.depth - 1 | 1) << 1;
+        slots = new int[capacity];
+        times = new long[capacity];
+        mask = capacity - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Adds a press (producer only).
+     *
+     * @param slot  - the slot pressed.
+     * @param nanos - the System.nanoTime() of the press.
+     * @return - false iff the queue is full and the press was rejected.
+     */
+    public boolean offer(int slot, long nanos) {
+        long next = tail.get();
+        if (next - headCache >= depth) {
+            headCache = head.get();
+            if (next - headCache >= depth) return false;
+        }
+        int index = (int) next & mask;
+        slots[index] = slot;
+        times[index] = nanos;
+        tail.lazySet(next + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest press (consumer only).
+     *
+     * @return - the slot pressed, or -1 if the queue is empty.
+     */
+    public int poll() {
+        long next = head.get();
+        if (next == tailCache) {
+            tailCache = tail.get();
+            if (next == tailCache) return -1;
+        }
+        int index = (int) next & mask;
+        int slot = slots[index];
+        polledNanos = times[index];
+        head.lazySet(next + 1);
+        return slot;
+    }
+
+    /**
+     * @return - the time of the press last returned by poll (consumer only).
+     */
+    public long polledNanos() {
+        return polledNanos;
+    }
+}
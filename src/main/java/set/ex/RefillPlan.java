@@ -0,0 +1,124 @@
+package set.ex;
+
+import set.Env;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The dealer's plan for replacing the next legal set, prepared while it waits for submissions: the cards that will be
+ * drawn from the deck, and the sets they will form with the cards on the table. Committing a legal set then only
+ * moves the planned cards into the emptied slots, and the sets on the new table are found by filtering the current
+ * sets and the planned ones, without searching the table again.
+ * A plan is only valid until the next change to the table or the deck (the dealer makes both).
+ */
+public class RefillPlan {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * The cards to place in the emptied slots, in drawing order (the first count entries).
+     */
+    private final int[] cards;
+    private int count;
+
+    /**
+     * The sets among the cards on the table and the planned cards that use at least one planned card.
+     */
+    private final List<int[]> sets;
+
+    /**
+     * A buffer of the cards on the table followed by the planned cards.
+     */
+    private final int[] candidates;
+
+    /**
+     * True iff the plan matches the current table and deck.
+     */
+    private boolean ready;
+
+    public RefillPlan(Env env) {
+        this.env = env;
+        cards = new int[Table.SET_SIZE];
+        sets = new ArrayList<>();
+        candidates = new int[env.config.tableSize + Table.SET_SIZE];
+    }
+
+    /**
+     * Plans the refill of the next legal set.
+     *
+     * @param deck       - the dealer's deck.
+     * @param tableCards - the cards on the table (the first tableCount entries).
+     * @param tableCount - the number of cards on the table.
+     * @param refills    - the number of emptied slots to refill (at most SET_SIZE), before the deck runs out.
+     */
+    public void prepare(Deck deck, int[] tableCards, int tableCount, int refills) {
+        count = Math.min(refills, deck.size());
+        for (int i = 0; i < count; i++) cards[i] = deck.cards()[deck.size() - 1 - i];
+
+        sets.clear();
+        if (count > 0) {
+            System.arraycopy(tableCards, 0, candidates, 0, tableCount);
+            System.arraycopy(cards, 0, candidates, tableCount, count);
+            for (int[] set : env.util.findSets(candidates, tableCount + count, Integer.MAX_VALUE))
+                if (usesPlannedCard(set)) sets.add(set);
+        }
+        ready = true;
+    }
+
+    /**
+     * Marks the plan as stale, must be called after every change to the table or the deck.
+     */
+    public void invalidate() {
+        ready = false;
+    }
+
+    public boolean ready() {
+        return ready;
+    }
+
+    /**
+     * @return - the number of planned cards.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return - the i-th planned card (the i-th card to be drawn).
+     */
+    public int card(int i) {
+        return cards[i];
+    }
+
+    /**
+     * Computes the sets on the table after a legal set is replaced by the planned cards.
+     *
+     * @param tableSets - the sets on the table before the legal set is removed.
+     * @param removed   - the cards of the legal set.
+     * @return - the sets on the new table.
+     */
+    public List<int[]> apply(List<int[]> tableSets, int[] removed) {
+        List<int[]> result = new ArrayList<>();
+        for (int[] set : tableSets) if (disjoint(set, removed)) result.add(set);
+        for (int[] set : sets) if (disjoint(set, removed)) result.add(set);
+        return result;
+    }
+
+    private boolean usesPlannedCard(int[] set) {
+        for (int card : set)
+            for (int i = 0; i < count; i++)
+                if (card == cards[i]) return true;
+        return false;
+    }
+
+    private static boolean disjoint(int[] set, int[] removed) {
+        for (int card : set)
+            for (int other : removed)
+                if (card == other) return false;
+        return true;
+    }
+}
@@ -0,0 +1,536 @@
+package set.ex;
+
+import set.Config;
+import set.UtilImpl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Analyses the set space of a game configuration on all cores, using the set completion rule (UtilImpl.completeSet):
+ * counts the legal sets of the deck, and searches for maximal caps - collections of cards holding no set, which
+ * deal dead tables. Caps can be exported as table layouts for the dealer (see TableLayouts). For configurations too
+ * large to enumerate, it estimates the statistics of random tables by dealing millions of them.
+ * Usage: SetAnalysis count | caps [seconds] [limit] | export file [seconds] [limit] | simulate [tables] [seed]
+ *        [key=value ...]
+ * The game configuration is read from config.properties, key=value arguments override it (e.g. FeatureCount=3).
+ */
+public class SetAnalysis {
+
+    /**
+     * The number of nodes a search visits between checks of its deadline.
+     */
+    private static final int DEADLINE_CHECK = 1 << 12;
+
+    private final Config config;
+    private final UtilImpl util;
+
+    /**
+     * The size of a set.
+     */
+    private final int setSize;
+
+    /**
+     * The bits of feature values held by each card, one int per feature (values-as-bits, like UtilImpl.packCard).
+     */
+    private final int[][] valueBits;
+
+    /**
+     * The number of cards on a simulated table.
+     */
+    private final int dealt;
+
+    /**
+     * The card completing each pair of cards to a set, indexed by first * deckSize + second (null unless sets have 3
+     * cards and the table is small enough, in which case Util.completeSet is used).
+     */
+    private final int[] thirdCard;
+
+    public SetAnalysis(Config config) {
+        this.config = config;
+        util = new UtilImpl(config);
+        setSize = config.featureSize;
+        valueBits = new int[config.deckSize][config.featureCount];
+        for (int card = 0; card < config.deckSize; card++) {
+            int[] features = util.cardToFeatures(card);
+            for (int i = 0; i < features.length; i++) valueBits[card][i] = 1 << features[i];
+        }
+        dealt = Math.min(config.tableSize, config.deckSize);
+        if (setSize == 3 && config.deckSize <= 2048) {
+            thirdCard = new int[config.deckSize * config.deckSize];
+            int[] pair = new int[2];
+            for (pair[0] = 0; pair[0] < config.deckSize; pair[0]++)
+                for (pair[1] = 0; pair[1] < config.deckSize; pair[1]++)
+                    thirdCard[pair[0] * config.deckSize + pair[1]] = pair[0] == pair[1] ? -1 : util.completeSet(pair);
+        } else thirdCard = null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Logger logger = Logger.getLogger("SetAnalysis");
+        Properties properties = Config.loadProperties("config.properties", logger);
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+        if (positional.isEmpty()) {
+            System.out.println("Usage: SetAnalysis count | caps [seconds] [limit] | export file [seconds] [limit]"
+                    + " | simulate [tables] [seed] [key=value ...]");
+            return;
+        }
+        SetAnalysis analysis = new SetAnalysis(new Config(logger, properties));
+        System.out.println("features: " + analysis.config.featureCount + " x " + analysis.config.featureSize
+                + ", deck: " + analysis.config.deckSize + " cards, parallelism: " + ForkJoinPool.commonPool().getParallelism());
+
+        String command = positional.get(0);
+        int next = command.equals("export") ? 2 : 1;
+        long seconds = positional.size() > next ? Long.parseLong(positional.get(next)) : 10;
+        int limit = positional.size() > next + 1 ? Integer.parseInt(positional.get(next + 1)) : 10;
+        long start = System.nanoTime();
+        switch (command) {
+            case "count": {
+                long sets = analysis.countSets();
+                System.out.println("sets: " + sets + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                break;
+            }
+            case "caps":
+            case "export": {
+                Caps caps = analysis.findCaps(seconds * 1_000_000_000L, limit);
+                System.out.println("largest maximal cap: " + caps.size + " cards" + (caps.complete ? "" : " (search timed out)")
+                        + ", caps found: " + caps.caps.size() + " (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                for (int[] cap : caps.caps) System.out.println(Arrays.toString(cap));
+                if (command.equals("export")) {
+                    if (positional.size() < 2) throw new IllegalArgumentException("export needs a file name");
+                    // the spare slots stay empty, for the extra cards of the dead table policy
+                    int slots = TableLayouts.slots(analysis.config);
+                    List<int[]> layouts = new ArrayList<>();
+                    for (int[] cap : caps.caps) layouts.add(Arrays.copyOf(cap, Math.min(cap.length, slots)));
+                    TableLayouts.write(Paths.get(positional.get(1)), "set-free layouts of " + analysis.config.featureCount
+                            + " features x " + analysis.config.featureSize + " values, from maximal caps of "
+                            + caps.size + " cards trimmed to " + slots + " slots", layouts);
+                    System.out.println("exported " + layouts.size() + " layouts to " + positional.get(1));
+                }
+                break;
+            }
+            case "simulate": {
+                long tables = positional.size() > 1 ? Long.parseLong(positional.get(1)) : 10_000_000;
+                long seed = positional.size() > 2 ? Long.parseLong(positional.get(2)) : System.nanoTime();
+                TableStats stats = analysis.simulate(tables, seed);
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.printf("tables: %,d of %d cards (seed %d, %.2f s, %,.0f tables/s)%n", stats.tables,
+                        analysis.dealt, seed, elapsed, stats.tables / elapsed);
+                System.out.printf("P(table has a set): %.6f +- %.6f (95%% confidence)%n", stats.setProbability(),
+                        stats.setProbabilityError());
+                System.out.printf("sets per table:     %.6f +- %.6f (95%% confidence)%n", stats.meanSets(),
+                        stats.meanSetsError());
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown command: " + command);
+        }
+    }
+
+    /**
+     * Counts the legal sets in the deck: every set is counted once, from its setSize - 1 smallest cards.
+     */
+    public long countSets() {
+        return ForkJoinPool.commonPool().invoke(new CountTask(0, config.deckSize));
+    }
+
+    /**
+     * Counts the sets whose smallest card is in [from, to), splitting the range between workers.
+     */
+    private class CountTask extends RecursiveTask<Long> {
+
+        private final int from;
+        private final int to;
+
+        CountTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                CountTask left = new CountTask(from, middle);
+                left.fork();
+                long right = new CountTask(middle, to).compute();
+                return right + left.join();
+            }
+            int[] cards = new int[setSize - 1];
+            int[][] values = new int[setSize][config.featureCount];
+            cards[0] = from;
+            values[1] = valueBits[from].clone();
+            return count(cards, values, 1);
+        }
+
+        /**
+         * Extends the first depth cards (whose union of values per feature is values[depth]) in ascending order.
+         */
+        private long count(int[] cards, int[][] values, int depth) {
+            if (depth == cards.length) {
+                int completion = util.completeSet(cards);
+                return completion > cards[depth - 1] ? 1 : 0;
+            }
+            long count = 0;
+            for (int card = cards[depth - 1] + 1; card < config.deckSize; card++) {
+                if (!extendable(values[depth], card, depth + 1, values[depth + 1])) continue;
+                cards[depth] = card;
+                count += count(cards, values, depth + 1);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Adds a card to the union of values of size - 1 cards.
+     *
+     * @return - false iff some feature of the size cards is neither shared by all nor distinct for all (so no card
+     *           completes them to a set).
+     */
+    private boolean extendable(int[] values, int card, int size, int[] result) {
+        for (int i = 0; i < values.length; i++) {
+            int union = values[i] | valueBits[card][i];
+            int distinct = Integer.bitCount(union);
+            if (distinct != 1 && distinct != size) return false;
+            result[i] = union;
+        }
+        return true;
+    }
+
+    /**
+     * The result of a cap search.
+     */
+    public static class Caps {
+
+        /**
+         * The size of the largest maximal cap found.
+         */
+        public final int size;
+
+        /**
+         * Maximal caps of that size, in ascending card order.
+         */
+        public final List<int[]> caps;
+
+        /**
+         * True iff the search was exhaustive (the size is the maximum, up to the symmetry of fixing the first card).
+         */
+        public final boolean complete;
+
+        Caps(int size, List<int[]> caps, boolean complete) {
+            this.size = size;
+            this.caps = caps;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Searches for the largest maximal caps: caps to which no card can be added without completing a set.
+     * Every card looks the same (the deck is an affine space), so card 0 is in all caps searched, and the search
+     * forks one task per second card. A candidate is pruned as soon as it completes a set with the cap, and a branch as
+     * soon as its remaining candidates cannot reach the largest cap found.
+     *
+     * @param timeoutNanos - the time after which the search stops with the best caps so far.
+     * @param limit        - the number of caps to return.
+     */
+    public Caps findCaps(long timeoutNanos, int limit) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        AtomicInteger best = new AtomicInteger(1);
+        List<int[]> found = new ArrayList<>();
+        CapTask[] tasks = new CapTask[config.deckSize - 1];
+        for (int second = 1; second < config.deckSize; second++)
+            tasks[second - 1] = new CapTask(second, deadline, best, found, limit);
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        boolean complete = true;
+        for (CapTask task : tasks) complete &= !task.timedOut;
+        return new Caps(best.get(), found, complete);
+    }
+
+    /**
+     * Searches the caps whose two smallest cards are 0 and second.
+     */
+    private class CapTask extends RecursiveAction {
+
+        private final int second;
+        private final long deadline;
+        private final AtomicInteger best;
+        private final int limit;
+        private final int words;
+
+        /**
+         * The maximal caps of the largest size found by all tasks (guarded by itself, which also guards raising best).
+         */
+        private final List<int[]> found;
+
+        /**
+         * The cap being extended, and the cards forbidden at each depth (they complete a set with the cap).
+         */
+        private int[] cap;
+        private long[][] forbidden;
+
+        /**
+         * A buffer for the setSize - 1 cards being completed.
+         */
+        private int[] partial;
+
+        private long nodes;
+        private volatile boolean timedOut;
+
+        CapTask(int second, long deadline, AtomicInteger best, List<int[]> found, int limit) {
+            this.second = second;
+            this.deadline = deadline;
+            this.best = best;
+            this.found = found;
+            this.limit = limit;
+            words = (config.deckSize + Long.SIZE - 1) / Long.SIZE;
+        }
+
+        @Override
+        protected void compute() {
+            // tasks starting after the deadline end right away, instead of after their first DEADLINE_CHECK nodes
+            if (System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+            cap = new int[config.deckSize];
+            forbidden = new long[config.deckSize + 1][words];
+            partial = new int[setSize - 1];
+            try {
+                add(0, 0);
+                if (forbidden(1, second)) return;
+                add(1, second);
+                search(2);
+            } finally {
+                // all the tasks are kept until the search ends, only the running ones hold their buffers
+                cap = null;
+                forbidden = null;
+                partial = null;
+            }
+        }
+
+        private boolean forbidden(int depth, int card) {
+            return (forbidden[depth][card >>> 6] & (1L << card)) != 0;
+        }
+
+        /**
+         * Adds a card to the cap of the given size, forbidding the cards that complete a set with it and setSize - 2
+         * cards of the cap.
+         */
+        private void add(int size, int card) {
+            System.arraycopy(forbidden[size], 0, forbidden[size + 1], 0, words);
+            cap[size] = card;
+            partial[setSize - 2] = card;
+            forbidCompletions(size + 1, size, 0, 0);
+        }
+
+        private void forbidCompletions(int depth, int size, int from, int chosen) {
+            if (chosen == setSize - 2) {
+                int completion = util.completeSet(partial);
+                if (completion >= 0) forbidden[depth][completion >>> 6] |= 1L << completion;
+                return;
+            }
+            for (int i = from; i <= size - (setSize - 2 - chosen); i++) {
+                partial[chosen] = cap[i];
+                forbidCompletions(depth, size, i + 1, chosen + 1);
+            }
+        }
+
+        private void search(int size) {
+            if (timedOut || (++nodes % DEADLINE_CHECK == 0 && System.nanoTime() > deadline)) {
+                timedOut = true;
+                return;
+            }
+            int last = cap[size - 1];
+            int candidates = 0;
+            for (int card = last + 1; card < config.deckSize; card++)
+                if (!forbidden(size, card)) candidates++;
+            if (candidates == 0) {
+                record(size);
+                return;
+            }
+            if (size + candidates < best.get()) return;
+
+            for (int card = last + 1; card < config.deckSize && !timedOut; card++) {
+                if (forbidden(size, card)) continue;
+                candidates--;
+                add(size, card);
+                search(size + 1);
+                if (size + candidates < best.get()) return;
+            }
+        }
+
+        /**
+         * Keeps the cap if it is maximal (every card is in it or forbidden) and as large as the largest one.
+         */
+        private void record(int size) {
+            int inCap = 0;
+            for (int card = 0; card < config.deckSize; card++) {
+                if (inCap < size && cap[inCap] == card) inCap++;
+                else if (!forbidden(size, card)) return;
+            }
+            synchronized (found) {
+                if (size < best.get()) return;
+                if (size > best.get()) {
+                    found.clear();
+                    best.set(size);
+                }
+                if (found.size() < limit) found.add(Arrays.copyOf(cap, size));
+            }
+        }
+    }
+
+    /**
+     * Accumulated statistics of random tables.
+     */
+    public static class TableStats {
+
+        public long tables;
+        public long tablesWithSet;
+        public long sets;
+        public long setsSquared;
+
+        void add(TableStats other) {
+            tables += other.tables;
+            tablesWithSet += other.tablesWithSet;
+            sets += other.sets;
+            setsSquared += other.setsSquared;
+        }
+
+        public double setProbability() {
+            return tablesWithSet / (double) tables;
+        }
+
+        /**
+         * @return - the half width of the normal 95% confidence interval of the probability.
+         */
+        public double setProbabilityError() {
+            double p = setProbability();
+            return 1.96 * Math.sqrt(p * (1 - p) / tables);
+        }
+
+        public double meanSets() {
+            return sets / (double) tables;
+        }
+
+        /**
+         * @return - the half width of the normal 95% confidence interval of the mean.
+         */
+        public double meanSetsError() {
+            double mean = meanSets();
+            double variance = (setsSquared - tables * mean * mean) / Math.max(1, tables - 1);
+            return 1.96 * Math.sqrt(Math.max(0, variance) / tables);
+        }
+    }
+
+    /**
+     * Deals random tables from the full deck and counts their sets, on all cores. Every fork-join task draws from its
+     * own split of the random stream, so the result only depends on the seed (not on the scheduling).
+     *
+     * @param tables - the number of tables to deal.
+     * @param seed   - the seed of the random stream.
+     */
+    public TableStats simulate(long tables, long seed) {
+        return ForkJoinPool.commonPool().invoke(new SimulateTask(tables, new SplittableRandom(seed)));
+    }
+
+    /**
+     * Deals a number of tables, splitting them (and the random stream) between workers.
+     */
+    private class SimulateTask extends RecursiveTask<TableStats> {
+
+        /**
+         * The number of tables a task deals without splitting.
+         */
+        private static final int BATCH = 1 << 14;
+
+        private final long tables;
+        private final SplittableRandom random;
+
+        SimulateTask(long tables, SplittableRandom random) {
+            this.tables = tables;
+            this.random = random;
+        }
+
+        @Override
+        protected TableStats compute() {
+            if (tables > BATCH) {
+                SimulateTask left = new SimulateTask(tables / 2, random.split());
+                left.fork();
+                TableStats stats = new SimulateTask(tables - tables / 2, random).compute();
+                stats.add(left.join());
+                return stats;
+            }
+            TableStats stats = new TableStats();
+            int[] deck = new int[config.deckSize];
+            for (int i = 0; i < deck.length; i++) deck[i] = i;
+            boolean[] onTable = new boolean[config.deckSize];
+            int[] partial = new int[setSize - 1];
+            for (long t = 0; t < tables; t++) {
+                // a partial Fisher-Yates shuffle deals the table into the first cards of the deck
+                for (int i = 0; i < dealt; i++) {
+                    int j = i + random.nextInt(deck.length - i);
+                    int card = deck[j];
+                    deck[j] = deck[i];
+                    deck[i] = card;
+                    onTable[card] = true;
+                }
+                long sets = thirdCard != null ? countTriples(deck, onTable) : countSets(deck, onTable, partial, 0, 0) / setSize;
+                for (int i = 0; i < dealt; i++) onTable[deck[i]] = false;
+                stats.tables++;
+                if (sets > 0) stats.tablesWithSet++;
+                stats.sets += sets;
+                stats.setsSquared += sets * sets;
+            }
+            return stats;
+        }
+
+        private long countTriples(int[] table, boolean[] onTable) {
+            long sets = 0;
+            for (int i = 0; i < dealt; i++) {
+                int row = table[i] * config.deckSize;
+                for (int j = i + 1; j < dealt; j++) {
+                    int third = thirdCard[row + table[j]];
+                    if (third >= 0 && onTable[third]) sets++;
+                }
+            }
+            // every set is found from each of its 3 pairs
+            return sets / 3;
+        }
+
+        /**
+         * Counts the (setSize - 1)-subsets of the table completed by a card on the table (setSize times the sets).
+         */
+        private long countSets(int[] table, boolean[] onTable, int[] partial, int from, int chosen) {
+            if (chosen == partial.length) {
+                int completion = util.completeSet(partial);
+                return completion >= 0 && onTable[completion] ? 1 : 0;
+            }
+            long count = 0;
+            for (int i = from; i <= dealt - (partial.length - chosen); i++) {
+                partial[chosen] = table[i];
+                count += countSets(table, onTable, partial, i + 1, chosen + 1);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package set.ex;
+
+import set.Config;
+import set.Env;
+import set.GameLifecycle;
+import set.Histogram;
+import set.Metrics;
+import set.ThreadLogger;
+import set.UserInterfaceMulticast;
+import set.UtilImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Checks that stopping a game takes bounded time: plays headless games of computer players with long freezes and
+ * table delays (so that threads are likely to be waiting), stops each at a random time through its lifecycle like
+ * closing the window does, and verifies that stopping never blocks the caller and that every game thread ends within
+ * the shutdown deadline.
+ * Usage: ShutdownLatency [games] [players] [key=value ...]
+ */
+public class ShutdownLatency {
+
+    /**
+     * The longest time a game runs before it is stopped.
+     */
+    private static final long MAX_RUN_MILLIS = 500;
+
+    /**
+     * The longest time asking a game to stop may take (it must not wait for the game).
+     */
+    private static final long MAX_STOP_CALL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Logger.getLogger("ShutdownLatency");
+        Properties properties = Config.loadProperties("config.properties", logger);
+        // long waits everywhere, unless overridden
+        properties.setProperty("PointFreezeSeconds", "5");
+        properties.setProperty("PenaltyFreezeSeconds", "5");
+        properties.setProperty("TableDelaySeconds", "0.2");
+        properties.setProperty("TurnTimeoutSeconds", "60");
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+        int games = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : 50;
+        int players = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 8;
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("RemotePlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("ServerPort", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("CheckpointFile", "");
+        properties.setProperty("LogLevel", properties.getProperty("ShutdownLogLevel", "WARNING"));
+        Config config = new Config(logger, properties);
+
+        Metrics metrics = new Metrics();
+        Histogram stopCall = metrics.histogram("lifecycle.stopCallNanos");
+        Random random = new Random(config.randomSeed != 0 ? config.randomSeed : System.nanoTime());
+        int failures = 0;
+        // game -1 warms up, and is not recorded
+        for (int i = -1; i < games; i++) {
+            Metrics gameMetrics = i < 0 ? new Metrics() : metrics;
+            Env env = new Env(logger, config, new UserInterfaceMulticast(), new UtilImpl(config), gameMetrics);
+            Player[] entities = new Player[config.players];
+            Table table = new Table(env, entities);
+            Dealer dealer = new Dealer(env, table, entities);
+            for (int id = 0; id < entities.length; id++) entities[id] = new Player_Bot(env, dealer, table, id);
+            GameLifecycle game = new GameLifecycle(logger, config.shutdownDeadlineMillis, gameMetrics);
+            dealer.setThreadFactory(game.threadFactory("player"));
+            game.onStop(dealer::terminate);
+            ThreadLogger dealerThread = game.newThread(dealer, "dealer");
+            dealerThread.setDaemon(true);
+            dealerThread.start();
+            game.running();
+
+            Thread.sleep(random.nextInt((int) MAX_RUN_MILLIS));
+            long start = System.nanoTime();
+            game.stop("stopped by test");
+            long call = System.nanoTime() - start;
+            boolean stopped = game.awaitStopped(2 * config.shutdownDeadlineMillis);
+            if (i < 0) continue;
+            stopCall.record(call);
+            if (call > MAX_STOP_CALL_NANOS || !stopped || !game.stragglers().isEmpty()) {
+                failures++;
+                System.out.printf("game %d: stop call %d us, stopped %s, %d threads missed the deadline%n", i,
+                        call / 1000, stopped, game.stragglers().size());
+            }
+        }
+
+        Histogram shutdown = metrics.histogram("lifecycle.shutdownNanos");
+        System.out.printf("%d games of %d players, deadline %d ms%n", games, players, config.shutdownDeadlineMillis);
+        System.out.printf("stop call (us):     p50 %d, p99 %d, max %d%n", stopCall.percentile(50) / 1000,
+                stopCall.percentile(99) / 1000, stopCall.max() / 1000);
+        System.out.printf("shutdown (ms):      p50 %.2f, p99 %.2f, max %.2f%n", shutdown.percentile(50) / 1e6,
+                shutdown.percentile(99) / 1e6, shutdown.max() / 1e6);
+        System.out.println(failures == 0 ? "passed" : failures + " games failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,327 @@
+package set.ex;
+
+import set.Config;
+import set.Env;
+import set.GameEventBus;
+import set.Histogram;
+import set.Metrics;
+import set.UserInterfaceDecorator;
+import set.UtilImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plays games of many computer players back to back for hours, with chaos spins (RandomSpinMin/Max) on the game threads
+ * at every user interface update, and keeps checking the invariants of the game while holding all of the table:
+ * - slotToCard and cardToSlot map every card on the table to its slot and back, and no other card to a slot;
+ * - every player's setSize is the number of its tokens;
+ * - no card is both in the deck and on the table (or twice in either);
+ * - the committed scores never decrease, and no player's score is above its committed score.
+ * When an invariant breaks, the soak stops and dumps the recent events of the game. Every report interval, it prints
+ * the throughput (sets verified per second) relative to the first interval, to catch leaks and slow lock convoys.
+ * Usage: SoakTest [minutes] [players] [report seconds] [key=value ...]
+ */
+public class SoakTest {
+
+    /**
+     * The time between invariant checks.
+     */
+    private static final long CHECK_MILLIS = 20;
+
+    /**
+     * The number of recent events dumped when an invariant breaks.
+     */
+    private static final int HISTORY = 256;
+
+    /**
+     * The throughput (relative to the first interval) below which an interval is reported as degraded.
+     */
+    private static final double DEGRADED = 0.5;
+
+    /**
+     * The random spin cycles used when the configuration does not enable chaos spins.
+     */
+    private static final String DEFAULT_SPIN_MAX = "100";
+
+    /**
+     * The last events of the game, copied by the history subscriber of the event bus.
+     */
+    private static final class History implements GameEventBus.Handler {
+
+        private final GameEventBus.Event[] events = new GameEventBus.Event[HISTORY];
+        private long count;
+
+        History() {
+            for (int i = 0; i < events.length; i++) events[i] = new GameEventBus.Event();
+        }
+
+        @Override
+        public synchronized void onEvent(GameEventBus.Event event, boolean endOfBatch) {
+            event.copyTo(events[(int) (count++ % events.length)]);
+        }
+
+        /**
+         * @return - the number of events seen so far.
+         */
+        synchronized long count() {
+            return count;
+        }
+
+        /**
+         * @return - the descriptions of the recent events published before the given sequence number, oldest first.
+         */
+        synchronized List<String> before(long sequence) {
+            List<String> recent = new ArrayList<>();
+            for (long i = Math.max(0, count - events.length); i < count; i++) {
+                GameEventBus.Event event = events[(int) (i % events.length)];
+                if (event.sequence() < sequence) recent.add(event.toString());
+            }
+            return recent;
+        }
+    }
+
+    /**
+     * A game being played, and the committed scores its last check saw.
+     */
+    private static final class Game {
+
+        private final Table table;
+        private final Dealer dealer;
+        private final Player[] players;
+        private final int[] awarded;
+        private final int[] scores;
+        private final long[] stamps;
+
+        Game(Table table, Dealer dealer, Player[] players) {
+            this.table = table;
+            this.dealer = dealer;
+            this.players = players;
+            awarded = new int[players.length];
+            scores = new int[players.length];
+            stamps = new long[table.regions()];
+        }
+    }
+
+    private final Logger logger;
+    private final Config config;
+    private final Env env;
+    private final GameEventBus events;
+    private final History history;
+
+    /**
+     * The game being played (null between games), and the description of the first broken invariant (null if none).
+     */
+    private volatile Game current;
+    private volatile String failure;
+    private long failedAt;
+
+    /**
+     * The number of invariant checks and games played so far.
+     */
+    private volatile long checks;
+    private volatile int games;
+
+    public SoakTest(Logger logger, Config config) {
+        this.logger = logger;
+        this.config = config;
+        events = new GameEventBus(logger, config.eventRingSize);
+        history = new History();
+        events.subscribe("history", history);
+        UtilImpl util = new UtilImpl(config);
+        // the chaos spins run on the game threads, before every event is published
+        Logger quiet = Logger.getLogger(logger.getName() + ".ui");
+        quiet.setLevel(Level.OFF);
+        env = new Env(logger, config, new UserInterfaceDecorator(quiet, util, events), util, new Metrics());
+        events.subscribe("event-metrics", GameEventBus.counter(env.metrics));
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Logger logger = Logger.getLogger("SoakTest");
+        Properties properties = Config.loadProperties("config.properties", logger);
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+            else positional.add(arg);
+        }
+        long minutes = positional.size() > 0 ? Long.parseLong(positional.get(0)) : 60;
+        int players = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 200;
+        long reportSeconds = positional.size() > 2 ? Long.parseLong(positional.get(2)) : 10;
+        // soak games only have bots, and must not log every move
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("RemotePlayers", "0");
+        properties.setProperty("ComputerPlayers", Integer.toString(players));
+        properties.setProperty("ServerPort", "0");
+        properties.setProperty("Hints", "False");
+        properties.setProperty("CheckpointFile", "");
+        properties.setProperty("LogLevel", properties.getProperty("SoakLogLevel", "WARNING"));
+        if (Long.parseLong(properties.getProperty("RandomSpinMax", "0")) <= 0)
+            properties.setProperty("RandomSpinMax", DEFAULT_SPIN_MAX);
+
+        SoakTest soak = new SoakTest(logger, new Config(logger, properties));
+        System.out.printf("soaking %d players for %d minutes, chaos spins %d-%d%n", players, minutes,
+                soak.config.randomSpinMin, soak.config.randomSpinMax);
+        boolean passed = soak.run(TimeUnit.MINUTES.toNanos(minutes), TimeUnit.SECONDS.toNanos(reportSeconds));
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Plays games until the time is up or an invariant breaks.
+     *
+     * @return - true iff no invariant broke.
+     */
+    public boolean run(long nanos, long reportNanos) throws InterruptedException {
+        events.start();
+        Thread checker = new Thread(this::checkLoop, "soak-checker");
+        checker.setDaemon(true);
+        checker.start();
+        Thread reporter = new Thread(() -> reportLoop(reportNanos), "soak-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end && failure == null) {
+            Player[] players = new Player[config.players];
+            Table table = new Table(env, players);
+            Dealer dealer = new Dealer(env, table, players);
+            for (int i = 0; i < players.length; i++) players[i] = new Player_Bot(env, dealer, table, i);
+            Thread dealerThread = new Thread(dealer, "soak-dealer-" + games);
+            current = new Game(table, dealer, players);
+            dealerThread.start();
+            while (dealerThread.isAlive() && System.nanoTime() < end && failure == null)
+                dealerThread.join(CHECK_MILLIS);
+            if (dealerThread.isAlive()) dealer.terminate();
+            dealerThread.join();
+            current = null;
+            games++;
+        }
+        checker.interrupt();
+        reporter.interrupt();
+        checker.join();
+
+        String broken = failure;
+        if (broken != null) dumpFailure(broken);
+        else System.out.printf("passed: %d games, %d invariant checks%n", games, checks);
+        events.dispose();
+        return broken == null;
+    }
+
+    private void checkLoop() {
+        while (failure == null && !Thread.currentThread().isInterrupted()) {
+            Game game = current;
+            if (game != null) {
+                String broken = check(game);
+                checks++;
+                if (broken != null) {
+                    failedAt = events.published();
+                    failure = broken;
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the invariants of a game, holding all the regions of its table (the dealer and the players wait meanwhile).
+     *
+     * @return - a description of the first broken invariant, or null if none is broken.
+     */
+    private String check(Game game) {
+        Table table = game.table;
+        table.writeLockAll(game.stamps);
+        try {
+            boolean[] placed = new boolean[config.deckSize];
+            for (int slot = 0; slot < config.tableSize; slot++) {
+                int card = table.slotToCard[slot];
+                if (card == Table.NO_CARD) continue;
+                if (placed[card]) return "card " + card + " is on the table twice";
+                placed[card] = true;
+                if (table.cardToSlot.get(card) != slot)
+                    return "card " + card + " is in slot " + slot + " but cardToSlot maps it to " + table.cardToSlot.get(card);
+            }
+            for (int card = 0; card < config.deckSize; card++)
+                if (!placed[card] && table.cardToSlot.get(card) != CardSlotMap.NONE)
+                    return "card " + card + " is not on the table but cardToSlot maps it to " + table.cardToSlot.get(card);
+
+            Deck deck = game.dealer.deck();
+            boolean[] inDeck = new boolean[config.deckSize];
+            for (int i = 0; i < deck.size(); i++) {
+                int card = deck.cards()[i];
+                if (placed[card]) return "card " + card + " is both in the deck and on the table";
+                if (inDeck[card]) return "card " + card + " is in the deck twice";
+                inDeck[card] = true;
+            }
+
+            for (Player player : game.players) {
+                int tokens = 0;
+                for (int slot = 0; slot < config.tableSize; slot++) if (table.tokens[player.id][slot]) tokens++;
+                if (tokens != player.setSize)
+                    return "player " + player.id + " has " + tokens + " tokens but setSize " + player.setSize;
+
+                int awarded = game.dealer.awarded(player.id);
+                int score = player.score;
+                if (awarded < game.awarded[player.id])
+                    return "player " + player.id + " committed score went down from " + game.awarded[player.id] + " to " + awarded;
+                if (score < game.scores[player.id])
+                    return "player " + player.id + " score went down from " + game.scores[player.id] + " to " + score;
+                if (score > awarded)
+                    return "player " + player.id + " score " + score + " is above its committed score " + awarded;
+                game.awarded[player.id] = awarded;
+                game.scores[player.id] = score;
+            }
+            return null;
+        } finally {
+            table.unlockWrite(game.stamps);
+        }
+    }
+
+    /**
+     * Prints the throughput of every interval, relative to the first one.
+     */
+    private void reportLoop(long reportNanos) {
+        Histogram verdict = env.metrics.histogram("player.submitToVerdictNanos");
+        Histogram lock = env.metrics.histogram("dealer.commitLockNanos");
+        long start = System.nanoTime();
+        double baseline = 0;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                TimeUnit.NANOSECONDS.sleep(reportNanos);
+                double rate = verdict.count() * 1e9 / reportNanos;
+                if (baseline == 0) baseline = rate;
+                double relative = baseline == 0 ? 0 : rate / baseline;
+                Runtime runtime = Runtime.getRuntime();
+                System.out.printf("%6d s: %d games, %.0f sets/s (%.0f%% of first), verdict p99 %d us, lock p99 %d us,"
+                                + " heap %d MB, %d checks%s%n", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                        games, rate, relative * 100, verdict.percentile(99) / 1000, lock.percentile(99) / 1000,
+                        (runtime.totalMemory() - runtime.freeMemory()) >> 20, checks,
+                        relative < DEGRADED ? " DEGRADED" : "");
+                if (relative < DEGRADED) logger.warning("throughput degraded to " + Math.round(relative * 100) + "%");
+                // the rates and percentiles are of the interval
+                verdict.reset();
+                lock.reset();
+            }
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Prints the broken invariant and the events published up to it (once the history subscriber caught up).
+     */
+    private void dumpFailure(String broken) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (history.count() < failedAt && System.nanoTime() < deadline) Thread.sleep(10);
+        System.out.println("INVARIANT BROKEN: " + broken);
+        logger.severe("invariant broken: " + broken);
+        System.out.println("last events before event #" + failedAt + ":");
+        for (String event : history.before(failedAt)) System.out.println("  " + event);
+    }
+}
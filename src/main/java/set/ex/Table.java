@@ -1,19 +1,37 @@
 package set.ex;
 import set.Env;
+import set.TimingWheel;
 
 import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class contains the data that is visible to the player.
- * @inv slotToCard[x] == y iff cardToSlot[y] == x
+ * @inv slotToCard[x] == y iff cardToSlot.get(y) == x
+ * @inv occupied.get(x) iff slotToCard[x] != NO_CARD iff x is not in freeSlots
+ * @inv tokens[p][x] iff bit p of slot x is set in slotTokens iff x is one of tokenSlots[p]
+ *
+ * The slots are partitioned into regions of consecutive slots, each guarded by its own stamped lock. The dealer
+ * changes cards in write mode of the regions holding them, acquired in ascending order. Players place and remove their
+ * own tokens in read mode of the slot's region, so a dealer commit only blocks the players playing in its regions.
+ * A player's own token bookkeeping (which spans regions) is guarded by its tokenSlots row.
  */
 public class Table {
 
+    /**
+     * The maximal number of tokens a player may place on the table.
+     */
+    public static final int SET_SIZE = 3;
+
+    /**
+     * The card of an empty slot.
+     */
+    public static final int NO_CARD = -1;
+
     /**
      * The game environment object.
      */
@@ -25,14 +43,14 @@ public class Table {
     private final Player[] players;
 
     /**
-     * Mapping between a slot and the card placed in it (null if none).
+     * Mapping between a slot and the card placed in it (NO_CARD if none).
      */
-    protected final Integer[] slotToCard; // card per slot (if any)
+    protected final int[] slotToCard; // card per slot (if any)
 
     /**
-     * Mapping between a card and the slot it is in (null if none).
+     * Mapping between a card and the slot it is in (CardSlotMap.NONE if none).
      */
-    protected final Integer[] cardToSlot; // slot per card (if any)
+    protected final CardSlotMap cardToSlot; // slot per card (if any)
 
     /*
      * A grid that holds all player tokens.
@@ -40,10 +58,54 @@ public class Table {
     protected final boolean[][] tokens;
 
     /**
-     * Cards on table being accessed through a Read-Write lock.
-     * The reason for that is to allow all players to access the table simultaneously, except when the dealer is using the table.
+     * The players holding a token on each slot, as a bitset of tokenWords words per slot.
+     * Atomic - players place tokens on the same slot concurrently under the read lock.
+     */
+    private final AtomicLongArray slotTokens;
+    private final int tokenWords;
+
+    /**
+     * The slots holding each player's tokens (the first players[p].setSize entries).
+     * Synchronized on tokenSlots[p] - the player and the dealer may change it while holding different regions.
+     */
+    private final int[][] tokenSlots;
+
+    /**
+     * The slots holding a card.
+     */
+    private final BitSet occupied;
+
+    /**
+     * The number of optimistic reads a snapshot attempts before falling back to the read lock.
      */
-    protected final ReadWriteLock rwLock;
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    /**
+     * A stack of the empty slots, and the position of each empty slot in it.
+     */
+    private final int[] freeSlots;
+    private final int[] freeIndex;
+    private int freeCount;
+
+    /**
+     * Cards on table being accessed through a stamped lock per region.
+     * The dealer changes a region in write mode. Players place and remove their own tokens in read mode, so they access
+     * the region simultaneously, except when the dealer is using it. Readers that only look at the table (bots
+     * choosing a slot, snapshots) use optimistic reads: they take no lock, and retry if the dealer wrote meanwhile.
+     */
+    private final StampedLock[] locks;
+    private final int regionSlots;
+
+    /**
+     * The number of card changes in each region.
+     */
+    private final AtomicLongArray versions;
+
+    /**
+     * True once the game is terminated: the UX delays end at once.
+     */
+    // Volatile - Main thread and Dealer thread.
+    protected volatile boolean terminate;
 
     /**
      * Table constructor.
@@ -52,49 +114,172 @@ public class Table {
     public Table(Env env, Player[] players) {
         this.env = env;
         this.players = players;
-        slotToCard = new Integer[env.config.tableSize];
-        cardToSlot = new Integer[env.config.deckSize];
+        slotToCard = new int[env.config.tableSize];
+        Arrays.fill(slotToCard, NO_CARD);
+        cardToSlot = new CardSlotMap(env.config.deckSize, env.config.tableSize);
         tokens = new boolean[env.config.players][env.config.tableSize];
-        rwLock = new ReentrantReadWriteLock();
+        tokenWords = (env.config.players + Long.SIZE - 1) / Long.SIZE;
+        slotTokens = new AtomicLongArray(env.config.tableSize * tokenWords);
+        tokenSlots = new int[env.config.players][SET_SIZE];
+        occupied = new BitSet(env.config.tableSize);
+        freeSlots = new int[env.config.tableSize];
+        freeIndex = new int[env.config.tableSize];
+        for (int slot = 0; slot < env.config.tableSize; slot++) {
+            freeSlots[slot] = slot;
+            freeIndex[slot] = slot;
+        }
+        freeCount = env.config.tableSize;
+        regionSlots = Math.min(env.config.tableRegionSlots, Math.max(1, env.config.tableSize));
+        locks = new StampedLock[(env.config.tableSize + regionSlots - 1) / regionSlots];
+        Arrays.setAll(locks, region -> new StampedLock());
+        versions = new AtomicLongArray(locks.length);
+    }
+
+    /**
+     * @return - the number of locking regions.
+     */
+    public int regions() {
+        return locks.length;
+    }
+
+    /**
+     * @return - the region of a slot.
+     */
+    public int regionOf(int slot) {
+        return slot / regionSlots;
+    }
+
+    /**
+     * @return - the lock of the region holding a slot.
+     */
+    protected StampedLock lockOf(int slot) {
+        return locks[slot / regionSlots];
+    }
+
+    /**
+     * Write-locks the regions holding the given slots, in ascending order.
+     *
+     * @param slots  - the slots to lock.
+     * @param stamps - an array of regions() zero entries, receives the stamp of each locked region.
+     */
+    protected void writeLock(int[] slots, long[] stamps) {
+        for (int slot : slots) stamps[slot / regionSlots] = -1;
+        for (int region = 0; region < locks.length; region++)
+            if (stamps[region] == -1) stamps[region] = locks[region].writeLock();
+    }
+
+    /**
+     * Write-locks all regions, in ascending order.
+     *
+     * @param stamps - an array of regions() entries, receives the stamp of each region.
+     */
+    protected void writeLockAll(long[] stamps) {
+        for (int region = 0; region < locks.length; region++) stamps[region] = locks[region].writeLock();
+    }
+
+    /**
+     * Unlocks the regions locked by writeLock or writeLockAll, and zeroes their stamps.
+     */
+    protected void unlockWrite(long[] stamps) {
+        for (int region = 0; region < locks.length; region++)
+            if (stamps[region] != 0) {
+                locks[region].unlockWrite(stamps[region]);
+                stamps[region] = 0;
+            }
+    }
+
+    /**
+     * @return - the number of card changes in a region.
+     */
+    public long version(int region) {
+        return versions.get(region);
+    }
+
+    /**
+     * @return - the number of card changes on the table (the sum over all regions). Cards copied by snapshotCards
+     * between two reads of the same version are the cards of that version.
+     */
+    public long version() {
+        long version = 0;
+        for (int region = 0; region < locks.length; region++) version += versions.get(region);
+        return version;
     }
 
     /**
      * Places a card on the table in a grid slot.
      */
     public void placeCard(int card, int slot) {
+        placeCard(card, slot, true);
+    }
+
+    /**
+     * Places a card on the table in a grid slot, optionally skipping the UX delay (e.g. when restoring a saved table).
+     */
+    protected void placeCard(int card, int slot, boolean delay) {
         // UX/UI.
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
+        if (delay) TimingWheel.shared().pause(env.config.tableDelayMillis, () -> terminate);
 
         // Place card.
-        cardToSlot[card] = slot;
-        slotToCard[slot] = card;
+        setCard(card, slot);
+        versions.incrementAndGet(slot / regionSlots);
         env.ui.placeCard(card, slot);
     }
 
+    /**
+     * Places a card in a grid slot without the UX delay, the user interface or a new version, for a table that only
+     * its owner reads (see GameEnvironment).
+     */
+    void setCard(int card, int slot) {
+        cardToSlot.put(card, slot);
+        slotToCard[slot] = card;
+        occupied.set(slot);
+        removeFreeSlot(slot);
+    }
+
     /**
      * Removes a card from a grid slot on the table.
      */
     public void removeCard(int slot) {
+        removeCard(slot, true);
+    }
+
+    /**
+     * Removes a card from a grid slot on the table, optionally skipping the UX delay (e.g. when the dealer paused
+     * before taking the lock).
+     */
+    protected void removeCard(int slot, boolean delay) {
         // UX/UI.
-        try {
-            Thread.sleep(env.config.tableDelayMillis);
-        } catch (InterruptedException ignored) {}
-        
+        if (delay) TimingWheel.shared().pause(env.config.tableDelayMillis, () -> terminate);
+
         // Remove card.
-        int card = slotToCard[slot];
-        slotToCard[slot] = null;
-        cardToSlot[card] = null;
+        clearCard(slot);
+        versions.incrementAndGet(slot / regionSlots);
         env.ui.removeCard(slot);
     }
 
+    /**
+     * Removes the card of a grid slot without the UX delay, the user interface or a new version, for a table that only
+     * its owner reads (see GameEnvironment).
+     */
+    void clearCard(int slot) {
+        int card = slotToCard[slot];
+        slotToCard[slot] = NO_CARD;
+        cardToSlot.remove(card);
+        occupied.clear(slot);
+        freeIndex[slot] = freeCount;
+        freeSlots[freeCount++] = slot;
+    }
+
     /**
      * Places a player token on a grid slot.
      */
     public void placeToken(int player, int slot) {
-        tokens[player][slot] = true;
-        players[player].setSize++;
+        synchronized (tokenSlots[player]) {
+            tokens[player][slot] = true;
+            tokenSlots[player][players[player].setSize] = slot;
+            slotTokens.getAndAccumulate(slot * tokenWords + player / Long.SIZE, 1L << player, (word, bit) -> word | bit);
+            players[player].setSize++;
+        }
         env.ui.placeToken(player, slot);
     }
 
@@ -102,21 +287,130 @@ public class Table {
      * Removes a token of a player from a grid slot.
      */
     public void removeToken(int player, int slot) {
-        tokens[player][slot] = false;
-        players[player].setSize--;
+        int[] slots = tokenSlots[player];
+        synchronized (slots) {
+            tokens[player][slot] = false;
+            int last = players[player].setSize - 1;
+            for (int i = 0; i <= last; i++)
+                if (slots[i] == slot) {
+                    slots[i] = slots[last];
+                    break;
+                }
+            slotTokens.getAndAccumulate(slot * tokenWords + player / Long.SIZE, ~(1L << player), (word, mask) -> word & mask);
+            players[player].setSize--;
+        }
         env.ui.removeToken(player, slot);
     }
 
-        /**
-     * This method prints all possible legal sets of cards that are currently on the table.
+    /**
+     * Removes the tokens of all players from a grid slot, visiting only the players holding a token on it.
+     *
+     * @param onRemoved - called with the id of each player whose token was removed.
+     */
+    public void removeTokens(int slot, IntConsumer onRemoved) {
+        for (int word = 0; word < tokenWords; word++) {
+            long bits = slotTokens.get(slot * tokenWords + word);
+            while (bits != 0) {
+                int player = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                removeToken(player, slot);
+                onRemoved.accept(player);
+            }
+        }
+    }
+
+    /**
+     * Copies the slots holding a player's tokens.
+     *
+     * @param player - the player id.
+     * @param slots  - an array of at least SET_SIZE entries to copy the slots into.
+     * @return - the number of slots copied.
+     */
+    public int tokenSlots(int player, int[] slots) {
+        synchronized (tokenSlots[player]) {
+            int count = players[player].setSize;
+            System.arraycopy(tokenSlots[player], 0, slots, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * @return - the number of empty slots on the table.
+     */
+    public int freeSlots() {
+        return freeCount;
+    }
+
+    /**
+     * Picks a random empty slot, taking time independent of the table size.
+     *
+     * @return - an empty slot, or -1 if the table is full.
+     */
+    public int randomFreeSlot(Random random) {
+        if (freeCount == 0) return -1;
+        return freeSlots[random.nextInt(freeCount)];
+    }
+
+    /**
+     * @return - the slots holding a card, in ascending order.
+     */
+    public int[] occupiedSlots() {
+        return occupied.stream().toArray();
+    }
+
+    /**
+     * Returns whether a slot holds a card, without blocking (or being blocked by) the dealer.
+     */
+    public boolean hasCard(int slot) {
+        StampedLock lock = lockOf(slot);
+        long stamp = lock.tryOptimisticRead();
+        boolean hasCard = slotToCard[slot] != NO_CARD;
+        if (lock.validate(stamp)) return hasCard;
+        stamp = lock.readLock();
+        try {
+            return slotToCard[slot] != NO_CARD;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the cards on the table, without blocking (or being blocked by) the dealer unless it keeps changing the
+     * table. Each region is copied consistently, a commit spanning regions may be seen in some of them only.
+     * Must not be called by the dealer while it holds a write lock.
+     *
+     * @param cards - an array of at least tableSize entries, to copy the card of each slot into (NO_CARD if empty).
      */
-    public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
-        });
+    public void snapshotCards(int[] cards) {
+        for (int region = 0; region < locks.length; region++)
+            snapshotRegion(region, cards);
+    }
+
+    private void snapshotRegion(int region, int[] cards) {
+        StampedLock lock = locks[region];
+        int from = region * regionSlots;
+        int length = Math.min(regionSlots, slotToCard.length - from);
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                System.arraycopy(slotToCard, from, cards, from, length);
+                if (lock.validate(stamp)) return;
+            }
+            Thread.yield();
+        }
+        long stamp = lock.readLock();
+        try {
+            System.arraycopy(slotToCard, from, cards, from, length);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void removeFreeSlot(int slot) {
+        int index = freeIndex[slot];
+        if (index >= freeCount || freeSlots[index] != slot) return;
+        int top = freeSlots[--freeCount];
+        freeSlots[index] = top;
+        freeIndex[top] = index;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package set.ex;
+
+import set.Config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes files of table layouts: fixed collections of cards the dealer deals at the start of a round
+ * (e.g. set-free layouts for stress tests).
+ * A layout file is a text file with one layout per line, each a comma separated list of card ids placed in slots
+ * 0, 1, 2, ... in order. Empty lines and lines starting with '#' are ignored.
+ */
+public class TableLayouts {
+
+    private TableLayouts() {}
+
+    /**
+     * Reads the layouts of a file, skipping (and logging) layouts that do not fit the game configuration.
+     *
+     * @param path   - the layout file.
+     * @param config - the game configuration.
+     * @param logger - where invalid layouts are reported.
+     * @return - the valid layouts, in file order.
+     */
+    public static List<int[]> load(Path path, Config config, Logger logger) throws IOException {
+        List<int[]> layouts = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                int[] layout = Arrays.stream(line.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+                String error = validate(layout, config);
+                if (error == null) layouts.add(layout);
+                else logger.severe("skipping table layout at " + path + ":" + lineNumber + ": " + error);
+            } catch (NumberFormatException e) {
+                logger.severe("skipping table layout at " + path + ":" + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return layouts;
+    }
+
+    /**
+     * @return - the number of cards a layout may hold: the table slots, except the spare slots the dealer leaves empty
+     * for extra cards on a dead table (see Dealer).
+     */
+    public static int slots(Config config) {
+        int spareSlots = config.deadTableExtraCards ? Math.max(0, Math.min(config.spareSlots, config.tableSize - 1)) : 0;
+        return config.tableSize - spareSlots;
+    }
+
+    private static String validate(int[] layout, Config config) {
+        int slots = slots(config);
+        if (layout.length > slots)
+            return layout.length + " cards do not fit in " + slots + " slots (" + config.tableSize + " slots less the spare slots)";
+        BitSet seen = new BitSet();
+        for (int card : layout) {
+            if (card < 0 || card >= config.deckSize) return "card " + card + " is not in the deck";
+            if (seen.get(card)) return "card " + card + " appears twice";
+            seen.set(card);
+        }
+        return null;
+    }
+
+    /**
+     * Writes layouts to a file, replacing it.
+     *
+     * @param path    - the layout file.
+     * @param comment - a description written at the top of the file (may be null).
+     * @param layouts - the layouts to write.
+     */
+    public static void write(Path path, String comment, List<int[]> layouts) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if (comment != null)
+                for (String line : comment.split("\n")) writer.write("# " + line + "\n");
+            for (int[] layout : layouts) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < layout.length; i++) sb.append(i == 0 ? "" : ",").append(layout[i]);
+                writer.write(sb.append('\n').toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package set.ex;
+
+import set.Config;
+import set.Env;
+import set.UserInterfaceMulticast;
+import set.UtilImpl;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Compares the read throughput of the table's optimistic snapshots with reads guarded by a read-write lock, while a
+ * writer replaces cards the way the dealer does.
+ * Usage: TableReadBenchmark [seconds per run] [writer pause micros]
+ */
+public class TableReadBenchmark {
+
+    private static final int[] READERS = {4, 16, 64};
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+        long writerPauseNanos = (args.length > 1 ? Long.parseLong(args[1]) : 100) * 1000;
+
+        Properties properties = new Properties();
+        properties.setProperty("TableDelaySeconds", "0");
+        Logger logger = Logger.getLogger("TableReadBenchmark");
+        Config config = new Config(logger, properties);
+        Env env = new Env(logger, config, new UserInterfaceMulticast(), new UtilImpl(config));
+
+        System.out.printf("%-8s %-12s %16s %16s%n", "readers", "mode", "reads/s", "writes/s");
+        for (int readers : READERS) {
+            run(env, readers, seconds, writerPauseNanos, false);
+            run(env, readers, seconds, writerPauseNanos, true);
+        }
+    }
+
+    private static void run(Env env, int readers, long seconds, long writerPauseNanos, boolean optimistic)
+            throws InterruptedException {
+        int tableSize = env.config.tableSize;
+        Table table = new Table(env, new Player[env.config.players]);
+        for (int slot = 0; slot < tableSize; slot++) table.placeCard(slot, slot, false);
+        ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[readers + 1];
+        long[] deadline = new long[1];
+
+        for (int i = 0; i < readers; i++) {
+            threads[i] = new Thread(() -> {
+                int[] cards = new int[tableSize];
+                long count = 0;
+                awaitQuietly(start);
+                while (System.nanoTime() < deadline[0]) {
+                    if (optimistic) table.snapshotCards(cards);
+                    else {
+                        rwLock.readLock().lock();
+                        try {
+                            System.arraycopy(table.slotToCard, 0, cards, 0, tableSize);
+                        } finally {
+                            rwLock.readLock().unlock();
+                        }
+                    }
+                    count++;
+                }
+                reads.add(count);
+            });
+        }
+        threads[readers] = new Thread(() -> {
+            // the cards off the table, replaced in a cycle
+            int[] spare = new int[env.config.deckSize - tableSize];
+            for (int i = 0; i < spare.length; i++) spare[i] = tableSize + i;
+            int next = 0;
+            long[] stamps = new long[table.regions()];
+            int[] slots = new int[1];
+            awaitQuietly(start);
+            while (System.nanoTime() < deadline[0]) {
+                int slot = next % tableSize;
+                int index = next++ % spare.length;
+                if (optimistic) {
+                    slots[0] = slot;
+                    table.writeLock(slots, stamps);
+                    spare[index] = replace(table, slot, spare[index]);
+                    table.unlockWrite(stamps);
+                } else {
+                    rwLock.writeLock().lock();
+                    spare[index] = replace(table, slot, spare[index]);
+                    rwLock.writeLock().unlock();
+                }
+                writes.increment();
+                LockSupport.parkNanos(writerPauseNanos);
+            }
+        });
+
+        for (Thread thread : threads) thread.start();
+        deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+
+        System.out.printf("%-8d %-12s %,16.0f %,16.0f%n", readers, optimistic ? "optimistic" : "read-write",
+                reads.sum() / (double) seconds, writes.sum() / (double) seconds);
+    }
+
+    /**
+     * Replaces the card in a slot, returning the removed card.
+     */
+    private static int replace(Table table, int slot, int card) {
+        int removed = table.slotToCard[slot];
+        table.removeCard(slot);
+        table.placeCard(card, slot, false);
+        return removed;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ignored) {}
+    }
+}
@@ -1,8 +1,14 @@
 package set.ex;
 
 import set.Env;
+import set.TimingWheel;
 
-public class Timer implements Runnable {
+public class Timer {
+
+    /**
+     * The time between countdown display updates during the warning period.
+     */
+    private static final long WARNING_TICK_MILLIS = 10;
 
     /**
      * The game environment object.
@@ -15,79 +21,146 @@ public class Timer implements Runnable {
     protected final Dealer dealer;
 
     /**
-     * Notifications being passed between dealer and thread through interrupting threads.
+     * Runs the countdown ticks and the end of the round, shared with all other games.
      */
-    protected volatile Thread timerThread;
+    private final TimingWheel wheel;
 
     /**
      * The time when the dealer needs to reshuffle the deck due to turn timeout.
      */
-    private long reshuffleTime = Long.MAX_VALUE;
+    // Volatile - Timing wheel thread and Dealer thread.
+    private volatile long reshuffleTime = Long.MAX_VALUE;
+
+    /**
+     * The length of the next round (shorter than the turn timeout when resuming a saved round).
+     */
+    // Volatile - Timing wheel thread and Dealer thread.
+    protected volatile long roundMillis;
 
     /**
      * True iff game should be terminated.
      */
-    // Volatile - Timer thread and Dealer thread.
+    // Volatile - Timing wheel thread and Dealer thread.
     protected volatile boolean terminate;
 
+    /**
+     * The next countdown tick, and the number of the current round (ticks of earlier rounds are ignored).
+     */
+    // Guarded by this - Timing wheel thread and Dealer thread.
+    private TimingWheel.Timeout tick;
+    private long round;
+
+    /**
+     * The time that was left in the round when the countdown was paused (-1 if it is not paused).
+     */
+    // Volatile - Timing wheel thread and Dealer thread.
+    private volatile long pausedMillis = -1;
+
     public Timer (Dealer dealer, Env env) {
         this.dealer = dealer;
         this.env = env;
+        wheel = TimingWheel.shared();
+        roundMillis = env.config.turnTimeoutMillis;
     }
 
-    @Override
-    public void run() {
-        timerThread = Thread.currentThread();
-        notifyDealer();
+    /**
+     * Starts the countdown of a new round, at the end of which the dealer is notified.
+     */
+    protected synchronized void start() {
+        if (terminate) return;
+        cancelTick();
+        pausedMillis = -1;
+        long millis = roundMillis;
+        roundMillis = env.config.turnTimeoutMillis;
+        reshuffleTime = System.currentTimeMillis() + millis;
+        updateTimerDisplay(millis);
+        scheduleTick(++round);
+    }
+
+    /**
+     * Ends the current round now (e.g. when no set is left on the table), as if it timed out.
+     */
+    protected synchronized void expire() {
+        reshuffleTime = 0;
+        pausedMillis = -1;
+        cancelTick();
+        long current = round;
+        tick = wheel.schedule(0, () -> tick(current));
+    }
 
-        while (!terminate) {
-            // Wait for dealer to start the timer.
-            try {
-                synchronized(this) {wait();}
-            } catch (InterruptedException start) {}
+    /**
+     * Stops the countdown, keeping the time left in the round.
+     */
+    protected synchronized void pause() {
+        if (terminate || pausedMillis >= 0) return;
+        pausedMillis = Long.max(0, reshuffleTime - System.currentTimeMillis());
+        cancelTick();
+    }
 
-            reshuffleTime = System.currentTimeMillis() + env.config.turnTimeoutMillis;
-            updateTimerDisplay(env.config.turnTimeoutMillis);
-            timerLoop();
+    /**
+     * Continues the countdown stopped by pause().
+     */
+    protected synchronized void resume() {
+        if (terminate || pausedMillis < 0) return;
+        reshuffleTime = System.currentTimeMillis() + pausedMillis;
+        pausedMillis = -1;
+        updateTimerDisplay(reshuffleTime - System.currentTimeMillis());
+        scheduleTick(round);
+    }
 
-            dealer.roundFinished = true;
-            notifyDealer();
-        }
+    /**
+     * Stops the countdown for good.
+     */
+    protected synchronized void terminate() {
+        terminate = true;
+        cancelTick();
     }
 
     /**
-     * The inner loop of the timer thread that runs as long as the countdown did not time out.
+     * Returns the number of milliseconds left until the dealer reshuffles the deck.
      */
-    private void timerLoop() {
-        while (!terminate && System.currentTimeMillis() < reshuffleTime) {
-            long timeLeft = reshuffleTime - System.currentTimeMillis();
+    protected long remainingMillis() {
+        long paused = pausedMillis;
+        if (paused >= 0) return paused;
+        return Long.max(0, reshuffleTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Updates the countdown display, or ends the round once it timed out. Runs on the timing wheel thread.
+     */
+    private synchronized void tick(long tickRound) {
+        // a tick that was due as the countdown was paused is ignored, resume() schedules the next one
+        if (terminate || tickRound != round || pausedMillis >= 0) return;
+        long timeLeft = reshuffleTime - System.currentTimeMillis();
+        if (timeLeft > 0) {
             updateTimerDisplay(timeLeft);
-            if (timeLeft > env.config.turnTimeoutWarningMillis & timeLeft > 1000) {
-                sleep(1000); // 1 second
-            }
-            else {
-                sleep(1); // 1 millisecond
-            }
+            scheduleTick(tickRound);
+            return;
         }
+        tick = null;
+        dealer.roundFinished = true;
+        notifyDealer();
     }
 
     /**
-     * Sleep for a fixed amount of time.
+     * Schedules the next countdown tick: every second, and more often during the warning period.
      */
-    private void sleep(long sleepTime) {
-        long finishTime = System.currentTimeMillis() + sleepTime;
-        while (System.currentTimeMillis() < finishTime & !terminate) {
-            try {
-                Thread.sleep(Long.max(0, finishTime - System.currentTimeMillis()));
-            } catch (InterruptedException ignored) {}
-        }
+    private void scheduleTick(long tickRound) {
+        long timeLeft = Long.max(0, reshuffleTime - System.currentTimeMillis());
+        long delay = timeLeft > env.config.turnTimeoutWarningMillis & timeLeft > 1000 ? 1000 : WARNING_TICK_MILLIS;
+        tick = wheel.schedule(Long.min(delay, timeLeft), () -> tick(tickRound));
+    }
+
+    private void cancelTick() {
+        if (tick != null) tick.cancel();
+        tick = null;
     }
-    
+
     /**
      * Reset and/or update the countdown and the countdown display.
      */
     private void updateTimerDisplay(long timeLeft) {
-        if (timeLeft > env.config.turnTimeoutWarningMillis) 
+        if (timeLeft > env.config.turnTimeoutWarningMillis)
             env.ui.setCountdown(timeLeft + 900, false);
             // + 900 for playability: displays integer part of timeLeft
         else env.ui.setCountdown(timeLeft, true);
@@ -96,4 +169,4 @@ public class Timer implements Runnable {
     private void notifyDealer() {
         dealer.dealerThread.interrupt();
     }
-}
\ No newline at end of file
+}
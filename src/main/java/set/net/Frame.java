@@ -0,0 +1,43 @@
+package set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable encoded state change (or keyframe), shared by all of its subscribers.
+ */
+public final class Frame {
+
+    /**
+     * The sequence number of the change (of the last change included, for a keyframe).
+     */
+    public final long sequence;
+
+    /**
+     * True iff the frame holds the full game state rather than a single change.
+     */
+    public final boolean keyframe;
+
+    /**
+     * One or more protocol frames (see Protocol), never modified after construction.
+     */
+    private final byte[] bytes;
+
+    Frame(long sequence, boolean keyframe, byte[] bytes) {
+        this.sequence = sequence;
+        this.keyframe = keyframe;
+        this.bytes = bytes;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Copies the encoded frame to a buffer.
+     *
+     * @param buffer - a buffer with at least length() bytes remaining.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes);
+    }
+}
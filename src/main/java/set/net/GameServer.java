@@ -0,0 +1,282 @@
+package set.net;
+
+import set.Config;
+import set.ex.Player;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Hosts the game for network clients on localhost.
+ * Every connection subscribes to the spectator broadcast and is sent its frames as they are published, and key
+ * presses received from a connection are passed to the remote player it controls. All connections are served by a
+ * single selector thread, so game threads never block on the network.
+ */
+public class GameServer implements Runnable {
+
+    /**
+     * The smallest connection buffer: a few key press frames, and the welcome frame.
+     */
+    private static final int MIN_BUFFER_BYTES = 64;
+
+    private final Logger logger;
+    private final Config config;
+
+    /**
+     * Game entities.
+     */
+    private final Player[] players;
+
+    /**
+     * The ids of the remote players are firstRemote .. firstRemote + config.remotePlayers - 1.
+     */
+    private final int firstRemote;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * The game state updates, and the buffers of the connections input and output.
+     */
+    private final SpectatorBroadcast broadcast;
+    private final BufferPool connectionPool;
+
+    /**
+     * True iff the selector was woken up and has not sent the published frames yet.
+     */
+    private final AtomicBoolean wakeupPending;
+    private final Runnable wakeup;
+
+    /**
+     * The open connections, and the connection controlling each remote player (selector thread only).
+     */
+    private final List<Connection> connections;
+    private final Connection[] owners;
+
+    /**
+     * True iff the server should be closed.
+     */
+    private volatile boolean terminate;
+
+    /**
+     * A client connection and its pooled buffers (the output buffer is replaced by a larger one for a frame that does
+     * not fit in it, see flush).
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in;
+        private ByteBuffer out;
+        private final SpectatorBroadcast.Subscription subscription;
+        private int player = Protocol.NO_PLAYER;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            in = connectionPool.acquire();
+            out = connectionPool.acquire();
+            subscription = broadcast.subscribe();
+        }
+    }
+
+    public GameServer(Logger logger, Config config, Player[] players, SpectatorBroadcast broadcast) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        this.broadcast = broadcast;
+        firstRemote = config.humanPlayers;
+
+        if (config.serverBufferBytes < MIN_BUFFER_BYTES)
+            logger.severe("invalid server buffer bytes: " + config.serverBufferBytes + " (at least " + MIN_BUFFER_BYTES + ")");
+        connectionPool = new BufferPool(Math.max(MIN_BUFFER_BYTES, config.serverBufferBytes), 1024);
+        wakeupPending = new AtomicBoolean();
+        connections = new ArrayList<>();
+        owners = new Connection[config.remotePlayers];
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.serverPort), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        wakeup = () -> {
+            if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+        };
+        broadcast.addListener(wakeup);
+    }
+
+    /**
+     * The selector loop: accepts connections, reads key presses and writes the pending frames.
+     */
+    @Override
+    public void run() {
+        logger.info("game server listening on port " + config.serverPort);
+        try {
+            while (!terminate) {
+                selector.select();
+                wakeupPending.set(false);
+                for (Connection connection : new ArrayList<>(connections)) flush(connection);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) read(connection);
+                        if (key.isValid() && key.isWritable()) flush(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (!terminate) logger.severe("game server failed: " + e);
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) close(connection);
+            broadcast.removeListener(wakeup);
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {}
+            logger.info("game server closed");
+        }
+    }
+
+    /**
+     * Closes the server and all of its connections.
+     */
+    public void terminate() {
+        terminate = true;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel, channel.register(selector, SelectionKey.OP_READ));
+            connection.key.attach(connection);
+            connections.add(connection);
+
+            // take control of the first free remote player, otherwise watch the game
+            for (int i = 0; i < owners.length && connection.player == Protocol.NO_PLAYER; i++)
+                if (owners[i] == null) {
+                    owners[i] = connection;
+                    connection.player = firstRemote + i;
+                }
+            welcome(connection);
+            flush(connection);
+        }
+    }
+
+    /**
+     * Sends the client its player id, the state of the table follows as a keyframe.
+     */
+    private void welcome(Connection connection) {
+        Protocol.header(connection.out, Protocol.WELCOME, 8);
+        connection.out.putShort((short) connection.player).putShort((short) config.rows)
+                .putShort((short) config.columns).putShort((short) config.players);
+    }
+
+    private void read(Connection connection) {
+        ByteBuffer in = connection.in;
+        try {
+            if (connection.channel.read(in) < 0) {
+                close(connection);
+                return;
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+
+        in.flip();
+        while (in.remaining() >= 2) {
+            // a frame shorter than its header, or that can never fit in the buffer, is malformed
+            int length = 2 + (in.getShort(in.position()) & 0xFFFF);
+            if (length < Protocol.HEADER || length > in.capacity()) {
+                logger.warning("malformed frame of length " + length + " from game server client " + connection.channel);
+                close(connection);
+                return;
+            }
+            if (Protocol.completeFrame(in) == 0) break;
+            int next = in.position() + length;
+            in.getShort();
+            byte type = in.get();
+            if (type == Protocol.PRESS && length >= Protocol.HEADER + 2 && connection.player != Protocol.NO_PLAYER) {
+                int slot = Protocol.unsignedShort(in);
+                if (slot < config.tableSize) players[connection.player].keyPressed(slot);
+            }
+            in.position(next);
+        }
+        in.compact();
+    }
+
+    /**
+     * Copies the connection's pending frames to its output buffer and writes as much as the socket accepts.
+     * A connection that falls behind the broadcast is sent a keyframe instead of the frames it missed. A frame larger
+     * than the output buffer (e.g. the keyframe of a large table) gets a larger buffer, which is not pooled.
+     */
+    private void flush(Connection connection) {
+        if (!connection.channel.isOpen()) return;
+        ByteBuffer out = connection.out;
+        try {
+            Frame frame;
+            while ((frame = connection.subscription.peek()) != null) {
+                if (frame.length() > out.capacity()) out = grow(connection, frame.length());
+                if (out.remaining() < frame.length()) {
+                    out.flip();
+                    connection.channel.write(out);
+                    out.compact();
+                    if (out.remaining() < frame.length()) break;
+                }
+                frame.writeTo(out);
+                connection.subscription.consume(frame);
+            }
+            out.flip();
+            connection.channel.write(out);
+            out.compact();
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        connection.key.interestOps(out.position() > 0 || connection.subscription.peek() != null
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Replaces the connection's output buffer by one with room for a frame after its pending bytes.
+     */
+    private ByteBuffer grow(Connection connection, int frameLength) {
+        ByteBuffer out = ByteBuffer.allocateDirect(connection.out.position() + frameLength);
+        connection.out.flip();
+        out.put(connection.out);
+        connectionPool.release(connection.out);
+        connection.out = out;
+        return out;
+    }
+
+    private void close(Connection connection) {
+        if (!connections.remove(connection)) return;
+        if (connection.player != Protocol.NO_PLAYER) owners[connection.player - firstRemote] = null;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+        connectionPool.release(connection.in);
+        connectionPool.release(connection.out);
+    }
+}
@@ -0,0 +1,111 @@
+package set.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A load generator for the game server: opens many connections from a single selector thread, presses random slots
+ * on behalf of the players it was given and counts the frames it receives.
+ * Usage: LoadClient [port] [connections] [press interval millis] [seconds]
+ */
+public class LoadClient {
+
+    private static class Client {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(Protocol.HEADER + 2);
+        private int player = -1;
+        private int tableSize;
+        private long nextPress;
+
+        private Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long pressInterval = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+
+        Selector selector = Selector.open();
+        List<Client> clients = new ArrayList<>();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+        }
+
+        long frames = 0, bytes = 0, presses = 0, closed = 0;
+        long start = System.currentTimeMillis();
+        long nextReport = start + 1000;
+        long end = start + seconds * 1000;
+        while (System.currentTimeMillis() < end && closed < connections) {
+            selector.select(Math.max(1, Math.min(pressInterval, 100)));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                int read = client.channel.read(client.in);
+                if (read < 0) {
+                    key.cancel();
+                    client.channel.close();
+                    closed++;
+                    continue;
+                }
+                bytes += read;
+                client.in.flip();
+                int length;
+                while ((length = Protocol.completeFrame(client.in)) > 0) {
+                    int next = client.in.position() + length;
+                    client.in.getShort();
+                    if (client.in.get() == Protocol.WELCOME) {
+                        client.player = Protocol.unsignedShort(client.in);
+                        client.tableSize = Protocol.unsignedShort(client.in) * Protocol.unsignedShort(client.in);
+                    }
+                    client.in.position(next);
+                    frames++;
+                }
+                client.in.compact();
+            }
+
+            // press random slots for the clients that control a player
+            long now = System.currentTimeMillis();
+            for (Client client : clients) {
+                if (client.player == Protocol.NO_PLAYER || client.tableSize == 0 || now < client.nextPress
+                        || !client.channel.isOpen()) continue;
+                client.nextPress = now + pressInterval;
+                client.out.clear();
+                Protocol.header(client.out, Protocol.PRESS, 2);
+                client.out.putShort((short) ThreadLocalRandom.current().nextInt(client.tableSize)).flip();
+                client.channel.write(client.out);
+                presses++;
+            }
+
+            if (now >= nextReport) {
+                double elapsed = (now - start) / 1000.0;
+                System.out.printf("%.0fs: %d connections, %.0f frames/s, %.0f KB/s in, %.0f presses/s%n", elapsed,
+                        connections - closed, frames / elapsed, bytes / elapsed / 1024, presses / elapsed);
+                nextReport += 1000;
+            }
+        }
+
+        for (Client client : clients) client.channel.close();
+        selector.close();
+    }
+}
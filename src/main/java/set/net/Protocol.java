@@ -0,0 +1,123 @@
+package set.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol between the game server and its clients.
+ * Every frame is a 2 bytes unsigned length (of the type and the payload), a 1 byte type and the payload.
+ * Slots and player ids are 2 bytes unsigned, cards and scores 4 bytes, times 8 bytes (all big endian).
+ */
+public final class Protocol {
+
+    /**
+     * The size of the frame header (length and type).
+     */
+    public static final int HEADER = 3;
+
+    /**
+     * The maximal length of a frame (header included).
+     */
+    public static final int MAX_FRAME = 0xFFFF + 2;
+
+    // client to server
+
+    /**
+     * A key press of the client's player: slot.
+     */
+    public static final byte PRESS = 1;
+
+    // server to client
+
+    /**
+     * Sent once on connection: the client's player id (0xFFFF if all remote players are taken), rows, columns, players.
+     */
+    public static final byte WELCOME = 16;
+
+    /**
+     * slot, card.
+     */
+    public static final byte PLACE_CARD = 17;
+
+    /**
+     * slot.
+     */
+    public static final byte REMOVE_CARD = 18;
+
+    /**
+     * player, slot.
+     */
+    public static final byte PLACE_TOKEN = 19;
+
+    /**
+     * player, slot.
+     */
+    public static final byte REMOVE_TOKEN = 20;
+
+    /**
+     * slot (ALL_SLOTS for all of the slots).
+     */
+    public static final byte REMOVE_TOKENS = 21;
+
+    /**
+     * milliseconds, warn (1 byte).
+     */
+    public static final byte COUNTDOWN = 22;
+
+    /**
+     * milliseconds.
+     */
+    public static final byte ELAPSED = 23;
+
+    /**
+     * player, milliseconds.
+     */
+    public static final byte FREEZE = 24;
+
+    /**
+     * player, score.
+     */
+    public static final byte SCORE = 25;
+
+    /**
+     * number of winners, player ids.
+     */
+    public static final byte WINNER = 26;
+
+    /**
+     * Starts the full game state: the client should clear its table, the frames that follow place the cards, tokens,
+     * scores, freezes and countdown.
+     */
+    public static final byte KEYFRAME = 27;
+
+    /**
+     * The slot of a REMOVE_TOKENS frame that removes the tokens of all slots, and the player id of a spectator.
+     */
+    public static final int ALL_SLOTS = 0xFFFF;
+    public static final int NO_PLAYER = 0xFFFF;
+
+    private Protocol() {}
+
+    /**
+     * Writes a frame header, the payload should follow.
+     *
+     * @param buffer        - the buffer to write the header to.
+     * @param type          - the frame type.
+     * @param payloadLength - the number of payload bytes that follow.
+     */
+    public static void header(ByteBuffer buffer, byte type, int payloadLength) {
+        buffer.putShort((short) (payloadLength + 1)).put(type);
+    }
+
+    /**
+     * @return - the length (header included) of the complete frame at the buffer's position, or 0 if it is incomplete.
+     */
+    public static int completeFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < 2) return 0;
+        int length = 2 + (buffer.getShort(buffer.position()) & 0xFFFF);
+        return buffer.remaining() >= length ? length : 0;
+    }
+
+    public static int unsignedShort(ByteBuffer buffer) {
+        return buffer.getShort() & 0xFFFF;
+    }
+}
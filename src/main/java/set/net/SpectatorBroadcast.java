@@ -0,0 +1,321 @@
+package set.net;
+
+import set.Config;
+import set.UserInterface;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the game to any number of local subscribers.
+ * Every user interface update is encoded once into an immutable delta frame and written to a ring buffer, which
+ * subscribers read at their own pace through private cursors. Every few deltas the full state is encoded into a
+ * keyframe: new subscribers start from it, and subscribers that fall a full ring behind skip ahead to it. The game
+ * threads never wait for a subscriber.
+ */
+public class SpectatorBroadcast implements UserInterface {
+
+    /**
+     * The published frames, frame n is at ring[n & mask] until overwritten by frame n + ring.length.
+     */
+    private final Frame[] ring;
+    private final int mask;
+
+    /**
+     * The sequence number of the next frame (frames 0 .. head - 1 were published).
+     */
+    private volatile long head;
+
+    /**
+     * The latest full state.
+     */
+    private volatile Frame keyframe;
+
+    /**
+     * The number of deltas between keyframes.
+     */
+    private final int keyframeInterval;
+
+    /**
+     * Called after each published frame (e.g. to wake up a selector).
+     */
+    private final List<Runnable> listeners;
+
+    /**
+     * The game state as seen by the user interface calls, for encoding keyframes (guarded by this).
+     */
+    private final int[] cards;
+    private final long[] tokens;
+    private final int tokenWords;
+    private final int[] scores;
+    private final long[] freezes;
+    private long countdown;
+    private boolean warn;
+
+    /**
+     * A subscriber's position in the stream, used by a single thread.
+     */
+    public class Subscription {
+
+        /**
+         * The sequence number of the next frame to read (-1 to start from a keyframe).
+         */
+        private long cursor = -1;
+
+        /**
+         * The number of times the subscriber fell behind and skipped to a keyframe.
+         */
+        private final AtomicLong skips = new AtomicLong();
+
+        /**
+         * @return - the next frame, without consuming it, or null if the subscriber is up to date.
+         */
+        public Frame peek() {
+            long published = head;
+            if (cursor >= 0 && cursor < published) {
+                Frame frame = ring[(int) (cursor & mask)];
+                if (frame != null && frame.sequence == cursor) return frame;
+            }
+            if (cursor < 0 || cursor < published) {
+                // first read, or the frame was overwritten: catch up from the latest keyframe
+                return keyframe;
+            }
+            return null;
+        }
+
+        /**
+         * Consumes a frame returned by peek.
+         */
+        public void consume(Frame frame) {
+            if (frame.keyframe && cursor >= 0) skips.incrementAndGet();
+            cursor = frame.sequence + 1;
+        }
+
+        /**
+         * @return - the next frame, or null if the subscriber is up to date.
+         */
+        public Frame poll() {
+            Frame frame = peek();
+            if (frame != null) consume(frame);
+            return frame;
+        }
+
+        public long skips() {
+            return skips.get();
+        }
+    }
+
+    public SpectatorBroadcast(Config config) {
+        int capacity = Integer.highestOneBit(Math.max(16, config.spectatorRingSize) - 1) << 1;
+        ring = new Frame[capacity];
+        mask = capacity - 1;
+        // a keyframe must be published well before the frames after it are overwritten
+        keyframeInterval = Math.max(1, Math.min(config.spectatorKeyframeInterval, capacity / 2));
+        listeners = new CopyOnWriteArrayList<>();
+
+        cards = new int[config.tableSize];
+        Arrays.fill(cards, -1);
+        tokenWords = (config.players + Long.SIZE - 1) / Long.SIZE;
+        tokens = new long[config.tableSize * tokenWords];
+        scores = new int[config.players];
+        freezes = new long[config.players];
+        keyframe = encodeKeyframe(-1);
+    }
+
+    /**
+     * @return - a new subscription, starting from the latest keyframe.
+     */
+    public Subscription subscribe() {
+        return new Subscription();
+    }
+
+    /**
+     * Registers a callback to run (on the publishing thread) after each published frame.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return - the number of frames published so far.
+     */
+    public long published() {
+        return head;
+    }
+
+    /**
+     * Publishes a single encoded change. Must be called while holding this object's lock.
+     */
+    private void publish(ByteBuffer delta) {
+        long sequence = head;
+        ring[(int) (sequence & mask)] = new Frame(sequence, false, delta.array());
+        head = sequence + 1;
+        if ((sequence + 1) % keyframeInterval == 0) keyframe = encodeKeyframe(sequence);
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) listener.run();
+    }
+
+    private static ByteBuffer delta(byte type, int payloadLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(Protocol.HEADER + payloadLength);
+        Protocol.header(buffer, type, payloadLength);
+        return buffer;
+    }
+
+    /**
+     * Encodes the full game state, including all changes up to the given sequence number.
+     */
+    private Frame encodeKeyframe(long sequence) {
+        int cardCount = 0, tokenCount = 0, frozen = 0;
+        for (int card : cards) if (card >= 0) cardCount++;
+        for (long word : tokens) tokenCount += Long.bitCount(word);
+        for (long freeze : freezes) if (freeze > 0) frozen++;
+
+        ByteBuffer buffer = ByteBuffer.allocate(Protocol.HEADER + cardCount * (Protocol.HEADER + 6)
+                + tokenCount * (Protocol.HEADER + 4) + scores.length * (Protocol.HEADER + 6)
+                + frozen * (Protocol.HEADER + 10) + Protocol.HEADER + 9);
+        Protocol.header(buffer, Protocol.KEYFRAME, 0);
+        for (int slot = 0; slot < cards.length; slot++) {
+            if (cards[slot] < 0) continue;
+            Protocol.header(buffer, Protocol.PLACE_CARD, 6);
+            buffer.putShort((short) slot).putInt(cards[slot]);
+        }
+        for (int slot = 0; slot < cards.length; slot++)
+            for (int word = 0; word < tokenWords; word++)
+                for (long bits = tokens[slot * tokenWords + word]; bits != 0; bits &= bits - 1) {
+                    Protocol.header(buffer, Protocol.PLACE_TOKEN, 4);
+                    buffer.putShort((short) (word * Long.SIZE + Long.numberOfTrailingZeros(bits))).putShort((short) slot);
+                }
+        for (int player = 0; player < scores.length; player++) {
+            Protocol.header(buffer, Protocol.SCORE, 6);
+            buffer.putShort((short) player).putInt(scores[player]);
+        }
+        for (int player = 0; player < freezes.length; player++) {
+            if (freezes[player] <= 0) continue;
+            Protocol.header(buffer, Protocol.FREEZE, 10);
+            buffer.putShort((short) player).putLong(freezes[player]);
+        }
+        Protocol.header(buffer, Protocol.COUNTDOWN, 9);
+        buffer.putLong(countdown).put((byte) (warn ? 1 : 0));
+        return new Frame(sequence, true, buffer.array());
+    }
+
+    private void setToken(int player, int slot, boolean value) {
+        int index = slot * tokenWords + player / Long.SIZE;
+        if (value) tokens[index] |= 1L << player;
+        else tokens[index] &= ~(1L << player);
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        synchronized (this) {
+            cards[slot] = card;
+            publish(delta(Protocol.PLACE_CARD, 6).putShort((short) slot).putInt(card));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        synchronized (this) {
+            cards[slot] = -1;
+            publish(delta(Protocol.REMOVE_CARD, 2).putShort((short) slot));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        synchronized (this) {
+            setToken(player, slot, true);
+            publish(delta(Protocol.PLACE_TOKEN, 4).putShort((short) player).putShort((short) slot));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void removeTokens() {
+        synchronized (this) {
+            Arrays.fill(tokens, 0);
+            publish(delta(Protocol.REMOVE_TOKENS, 2).putShort((short) Protocol.ALL_SLOTS));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        synchronized (this) {
+            Arrays.fill(tokens, slot * tokenWords, (slot + 1) * tokenWords, 0);
+            publish(delta(Protocol.REMOVE_TOKENS, 2).putShort((short) slot));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        synchronized (this) {
+            setToken(player, slot, false);
+            publish(delta(Protocol.REMOVE_TOKEN, 4).putShort((short) player).putShort((short) slot));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        synchronized (this) {
+            countdown = millies;
+            this.warn = warn;
+            publish(delta(Protocol.COUNTDOWN, 9).putLong(millies).put((byte) (warn ? 1 : 0)));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        synchronized (this) {
+            publish(delta(Protocol.ELAPSED, 8).putLong(millies));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        synchronized (this) {
+            freezes[player] = millies;
+            publish(delta(Protocol.FREEZE, 10).putShort((short) player).putLong(millies));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        synchronized (this) {
+            scores[player] = score;
+            publish(delta(Protocol.SCORE, 6).putShort((short) player).putInt(score));
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        synchronized (this) {
+            ByteBuffer delta = delta(Protocol.WINNER, 2 + 2 * players.length).putShort((short) players.length);
+            for (int player : players) delta.putShort((short) player);
+            publish(delta);
+        }
+        notifyListeners();
+    }
+
+    @Override
+    public void dispose() {
+        listeners.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoreboardTest {
+
+    private static int[] top(Scoreboard scoreboard) {
+        int[] players = new int[scoreboard.k()];
+        scoreboard.top(players, new int[scoreboard.k()]);
+        return players;
+    }
+
+    @Test
+    void startsRankedByPlayerId() {
+        Scoreboard scoreboard = new Scoreboard(5, 3);
+        assertArrayEquals(new int[]{0, 1, 2}, top(scoreboard));
+    }
+
+    @Test
+    void unrankedPlayerEvictsTheLastRankedPlayer() {
+        Scoreboard scoreboard = new Scoreboard(5, 2);
+        assertEquals(1, scoreboard.increment(4));
+        assertArrayEquals(new int[]{4, 0}, top(scoreboard));
+
+        scoreboard.increment(3);
+        assertArrayEquals(new int[]{3, 4}, top(scoreboard));
+        int[] points = new int[2];
+        scoreboard.top(new int[2], points);
+        assertArrayEquals(new int[]{1, 1}, points);
+    }
+
+    @Test
+    void tiesRankByPlayerId() {
+        Scoreboard scoreboard = new Scoreboard(4, 4);
+        scoreboard.increment(3);
+        scoreboard.increment(1);
+        // 1 and 3 tie, 1 ranks first
+        assertArrayEquals(new int[]{1, 3, 0, 2}, top(scoreboard));
+        scoreboard.increment(3);
+        assertArrayEquals(new int[]{3, 1, 0, 2}, top(scoreboard));
+        scoreboard.increment(1);
+        assertArrayEquals(new int[]{1, 3, 0, 2}, top(scoreboard));
+    }
+
+    @Test
+    void playerGoingDownIsReplacedByTheBestUnrankedPlayer() {
+        Scoreboard scoreboard = new Scoreboard(5, 2);
+        scoreboard.set(2, 5);
+        scoreboard.set(4, 3);
+        scoreboard.set(3, 3);
+        assertArrayEquals(new int[]{2, 3}, top(scoreboard));
+
+        // 3 drops out of the ranking, 4 is the best of the unranked players
+        scoreboard.set(3, 1);
+        assertArrayEquals(new int[]{2, 4}, top(scoreboard));
+        scoreboard.set(2, 0);
+        assertArrayEquals(new int[]{4, 3}, top(scoreboard));
+    }
+
+    @Test
+    void leadersShareTheHighestScore() {
+        Scoreboard scoreboard = new Scoreboard(4, 2);
+        scoreboard.increment(1);
+        scoreboard.increment(3);
+        assertArrayEquals(new int[]{1, 3}, scoreboard.leaders());
+        scoreboard.increment(3);
+        assertArrayEquals(new int[]{3}, scoreboard.leaders());
+        assertEquals(2, scoreboard.score(3));
+    }
+}
@@ -0,0 +1,112 @@
+package set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @BeforeEach
+    void setUp() {
+        // 4 ticks per turn, so most deadlines are a few turns of the wheel away
+        wheel = new TimingWheel(Logger.getLogger("TimingWheelTest"), 1, 4);
+    }
+
+    @Test
+    void runsTasksInDeadlineOrderAcrossRounds() throws InterruptedException {
+        long[] delays = {45, 2, 23, 9, 15, 31};
+        List<Long> ran = Collections.synchronizedList(new ArrayList<>());
+        List<String> early = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (long delay : delays)
+            wheel.schedule(delay, () -> {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (elapsed < delay) early.add("task of " + delay + " ms ran after " + elapsed + " ms");
+                ran.add(delay);
+                done.countDown();
+            });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2L, 9L, 15L, 23L, 31L, 45L), ran);
+        assertEquals(Collections.emptyList(), early);
+    }
+
+    @Test
+    void cancelledTaskNeverRuns() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean();
+        TimingWheel.Timeout timeout = wheel.schedule(20, () -> ran.set(true));
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(60, later::countDown);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    void expiredTaskCannotBeCancelled() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(1, ran::countDown);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isExpired());
+    }
+
+    @Test
+    void taskReschedulesItself() throws InterruptedException {
+        int rounds = 20;
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            if (count.incrementAndGet() < rounds) wheel.schedule(3, task[0]);
+            else done.countDown();
+        };
+        wheel.schedule(3, task[0]);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(rounds, count.get());
+    }
+
+    @Test
+    void pauseEndsOnTermination() throws InterruptedException {
+        AtomicBoolean terminate = new AtomicBoolean();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            wheel.pause(TimeUnit.MINUTES.toMillis(1), terminate::get);
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+        // interrupts alone do not end the pause
+        thread.interrupt();
+        thread.join(100);
+        assertTrue(thread.isAlive());
+
+        terminate.set(true);
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(thread.isAlive());
+        assertTrue(interrupted.get(), "the interrupt status is kept for the caller");
+    }
+
+    @Test
+    void pauseLastsItsTime() {
+        long start = System.nanoTime();
+        wheel.pause(30);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+}
@@ -0,0 +1,52 @@
+package set.ex;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PressQueueTest {
+
+    @Test
+    void rejectsPressesBeyondItsDepth() {
+        // a depth of 3 rounds the ring up to 4 entries, the depth still bounds the waiting presses
+        PressQueue queue = new PressQueue(3);
+        assertTrue(queue.offer(0, 10));
+        assertTrue(queue.offer(1, 11));
+        assertTrue(queue.offer(2, 12));
+        assertFalse(queue.offer(3, 13));
+
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4, 14));
+        assertFalse(queue.offer(5, 15));
+    }
+
+    @Test
+    void keepsOrderAndTimesAcrossWrapArounds() {
+        PressQueue queue = new PressQueue(4);
+        int next = 0;
+        int expected = 0;
+        // offers and polls in uneven batches, so the indexes wrap around the ring at every position
+        for (int round = 0; round < 100; round++) {
+            int offers = Math.min(1 + round % 4, 4 - (next - expected));
+            for (int i = 0; i < offers; i++) assertTrue(queue.offer(next, 1000L + next++));
+            for (int i = 0; i < 1 + round % 3 && expected < next; i++) {
+                assertEquals(expected, queue.poll());
+                assertEquals(1000L + expected++, queue.polledNanos());
+            }
+        }
+        for (int slot; (slot = queue.poll()) >= 0; ) assertEquals(expected++, slot);
+        assertEquals(next, expected);
+        assertEquals(-1, queue.poll());
+    }
+
+    @Test
+    void emptyQueueReturnsNoPress() {
+        PressQueue queue = new PressQueue(1);
+        assertEquals(-1, queue.poll());
+        assertTrue(queue.offer(7, 70));
+        assertFalse(queue.offer(8, 80));
+        assertEquals(7, queue.poll());
+        assertEquals(70, queue.polledNanos());
+        assertEquals(-1, queue.poll());
+    }
+}
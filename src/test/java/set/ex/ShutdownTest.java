@@ -0,0 +1,84 @@
+package set.ex;
+
+import org.junit.jupiter.api.Test;
+import set.Config;
+import set.Env;
+import set.GameLifecycle;
+import set.Metrics;
+import set.ThreadLogger;
+import set.UserInterfaceMulticast;
+import set.UtilImpl;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Stops headless games of computer players through their lifecycle, like closing the window does, and checks that
+ * every game thread ends within the shutdown deadline (see ShutdownLatency for the latency distribution).
+ */
+class ShutdownTest {
+
+    private static final long DEADLINE_MILLIS = 1000;
+
+    /**
+     * The longest time asking a game to stop may take (it must not wait for the game).
+     */
+    private static final long MAX_STOP_CALL_MILLIS = 100;
+
+    private static Config config() {
+        Properties properties = new Properties();
+        properties.setProperty("HumanPlayers", "0");
+        properties.setProperty("ComputerPlayers", "4");
+        properties.setProperty("RandomSeed", "1");
+        // long waits everywhere, so that threads are likely to be waiting when the game is stopped
+        properties.setProperty("PointFreezeSeconds", "5");
+        properties.setProperty("PenaltyFreezeSeconds", "5");
+        properties.setProperty("TableDelaySeconds", "0.2");
+        properties.setProperty("TurnTimeoutSeconds", "60");
+        properties.setProperty("ShutdownDeadlineSeconds", Double.toString(DEADLINE_MILLIS / 1000.0));
+        properties.setProperty("LogLevel", "OFF");
+        return new Config(Logger.getLogger("ShutdownTest"), properties);
+    }
+
+    @Test
+    void everyGameThreadEndsWithinTheDeadline() throws InterruptedException {
+        Config config = config();
+        Logger logger = Logger.getLogger("ShutdownTest");
+        // stopped while dealing, while playing and while players are frozen
+        for (long runMillis : new long[]{0, 50, 300, 700}) {
+            Env env = new Env(logger, config, new UserInterfaceMulticast(), new UtilImpl(config), new Metrics());
+            Player[] players = new Player[config.players];
+            Table table = new Table(env, players);
+            Dealer dealer = new Dealer(env, table, players);
+            for (int id = 0; id < players.length; id++) players[id] = new Player_Bot(env, dealer, table, id);
+            GameLifecycle game = new GameLifecycle(logger, config.shutdownDeadlineMillis, env.metrics);
+            dealer.setThreadFactory(game.threadFactory("player"));
+            game.onStop(dealer::terminate);
+            ThreadLogger dealerThread = game.newThread(dealer, "dealer");
+            dealerThread.setDaemon(true);
+            dealerThread.start();
+            game.running();
+
+            Thread.sleep(runMillis);
+            long start = System.nanoTime();
+            assertTrue(game.stop("stopped by test"));
+            long call = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(call < MAX_STOP_CALL_MILLIS, "stopping blocked the caller for " + call + " ms");
+
+            assertTrue(game.awaitStopped(2 * DEADLINE_MILLIS), "the game did not stop after " + runMillis + " ms");
+            assertEquals(GameLifecycle.State.STOPPED, game.state());
+            assertTrue(game.stragglers().isEmpty(), game.stragglers() + " missed the deadline after " + runMillis + " ms");
+            List<Thread> threads = game.threads();
+            assertTrue(threads.contains(dealerThread));
+            for (Thread thread : threads) {
+                // a thread that ended may still be unwinding its last frames
+                thread.join(100);
+                assertFalse(thread.isAlive(), thread.getName() + " is still alive after " + runMillis + " ms");
+            }
+        }
+    }
+}